@@ -0,0 +1,116 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.extensions.LifetimeExtension;
+import cloud.orbit.actors.extensions.metrics.dropwizard.OrbitMetricsActorExtension;
+import cloud.orbit.actors.net.HandlerContext;
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.actors.runtime.Invocation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of {@link OrbitMetricsActorExtension} per inbound invocation and per actor lifecycle.
+ */
+public class ActorExtensionBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class ExtensionState
+    {
+        LifetimeExtension baseline;
+        OrbitMetricsActorExtension extension;
+        HandlerContext context;
+        final AtomicInteger actorIds = new AtomicInteger();
+
+        @Setup
+        public void setup()
+        {
+            baseline = new LifetimeExtension()
+            {
+            };
+            extension = new OrbitMetricsActorExtension(new MetricRegistry());
+            context = BenchmarkFixtures.handlerContext();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ActorState
+    {
+        Invocation invocation;
+        AbstractActor<?> actor;
+
+        @Setup
+        public void setup(final ExtensionState extensionState)
+        {
+            final int id = extensionState.actorIds.incrementAndGet();
+            invocation = BenchmarkFixtures.invocation(id);
+            actor = BenchmarkActors.actor(id);
+        }
+    }
+
+    @Benchmark
+    public void onReadBaseline(final ExtensionState state, final ActorState actorState)
+    {
+        state.context.fireRead(actorState.invocation);
+    }
+
+    @Benchmark
+    public void onRead(final ExtensionState state, final ActorState actorState)
+    {
+        state.extension.onRead(state.context, actorState.invocation);
+    }
+
+    @Benchmark
+    public void lifecycleBaseline(final ExtensionState state, final ActorState actorState)
+    {
+        final AbstractActor<?> actor = actorState.actor;
+        state.baseline.preActivation(actor);
+        state.baseline.postActivation(actor);
+        state.baseline.preDeactivation(actor);
+        state.baseline.postDeactivation(actor);
+    }
+
+    @Benchmark
+    public void lifecycle(final ExtensionState state, final ActorState actorState)
+    {
+        final AbstractActor<?> actor = actorState.actor;
+        state.extension.preActivation(actor);
+        state.extension.postActivation(actor);
+        state.extension.preDeactivation(actor);
+        state.extension.postDeactivation(actor);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard.benchmarks;
+
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.concurrent.Task;
+
+import java.lang.reflect.Field;
+
+/**
+ * Actor instance and reference built without a running stage, for driving the extensions from benchmarks.
+ */
+final class BenchmarkActors
+{
+    private static final Field ACTOR_REFERENCE;
+
+    static
+    {
+        try
+        {
+            ACTOR_REFERENCE = AbstractActor.class.getDeclaredField("reference");
+            ACTOR_REFERENCE.setAccessible(true);
+        }
+        catch (NoSuchFieldException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BenchmarkActors()
+    {
+    }
+
+    static RemoteReference<BenchmarkActor> reference(final Object id)
+    {
+        return new Reference(id);
+    }
+
+    static AbstractActor<?> actor(final Object id)
+    {
+        final Impl actor = new Impl();
+        try
+        {
+            // set by the stage on activation, and not accessible outside the runtime package
+            ACTOR_REFERENCE.set(actor, new Reference(id));
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return actor;
+    }
+
+    private static final class Reference extends RemoteReference<BenchmarkActor> implements BenchmarkActor
+    {
+        Reference(final Object id)
+        {
+            super(id);
+        }
+
+        @Override
+        protected int _interfaceId()
+        {
+            return BenchmarkActor.class.getName().hashCode();
+        }
+
+        @Override
+        protected Class<BenchmarkActor> _interfaceClass()
+        {
+            return BenchmarkActor.class;
+        }
+
+        @Override
+        public Task<String> sayHello(final String greeting)
+        {
+            return Task.fromValue(greeting);
+        }
+    }
+
+    private static final class Impl extends AbstractActor<Object> implements BenchmarkActor
+    {
+        @Override
+        public Task<String> sayHello(final String greeting)
+        {
+            return Task.fromValue(greeting);
+        }
+    }
+}
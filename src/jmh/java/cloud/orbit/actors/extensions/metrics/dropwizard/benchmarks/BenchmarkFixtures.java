@@ -0,0 +1,76 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard.benchmarks;
+
+import cloud.orbit.actors.net.HandlerContext;
+import cloud.orbit.actors.runtime.Invocation;
+
+import java.lang.reflect.Method;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Mocked pipeline objects shared by the benchmarks. The mocks are stub only, so calling them in the
+ * measured loop does not record invocations.
+ */
+final class BenchmarkFixtures
+{
+    static final Method SAY_HELLO;
+
+    static
+    {
+        try
+        {
+            SAY_HELLO = BenchmarkActor.class.getMethod("sayHello", String.class);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BenchmarkFixtures()
+    {
+    }
+
+    static HandlerContext handlerContext()
+    {
+        return mock(HandlerContext.class, withSettings().stubOnly());
+    }
+
+    static Invocation invocation(final Object actorId)
+    {
+        final Invocation invocation = mock(Invocation.class, withSettings().stubOnly());
+        when(invocation.getToReference()).thenReturn(BenchmarkActors.reference(actorId));
+        when(invocation.getMethod()).thenReturn(SAY_HELLO);
+        return invocation;
+    }
+}
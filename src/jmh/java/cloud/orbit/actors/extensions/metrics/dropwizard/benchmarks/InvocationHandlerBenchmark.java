@@ -0,0 +1,99 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.extensions.metrics.dropwizard.OrbitMetricsInvocationHandler;
+import cloud.orbit.actors.runtime.DefaultInvocationHandler;
+import cloud.orbit.actors.runtime.Invocation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of {@link OrbitMetricsInvocationHandler} per invocation, against the {@link DefaultInvocationHandler} it extends.
+ */
+public class InvocationHandlerBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class HandlerState
+    {
+        DefaultInvocationHandler baseline;
+        OrbitMetricsInvocationHandler handler;
+        final AtomicInteger actorIds = new AtomicInteger();
+
+        @Setup
+        public void setup()
+        {
+            baseline = new DefaultInvocationHandler();
+            handler = new OrbitMetricsInvocationHandler(new MetricRegistry());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class InvocationState
+    {
+        Invocation invocation;
+
+        @Setup
+        public void setup(final HandlerState handlerState)
+        {
+            invocation = BenchmarkFixtures.invocation(handlerState.actorIds.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public void afterInvokeBaseline(final HandlerState state, final InvocationState invocationState)
+    {
+        state.baseline.afterInvoke(System.nanoTime(), invocationState.invocation, BenchmarkFixtures.SAY_HELLO);
+    }
+
+    @Benchmark
+    public void afterInvoke(final HandlerState state, final InvocationState invocationState)
+    {
+        state.handler.afterInvoke(System.nanoTime(), invocationState.invocation, BenchmarkFixtures.SAY_HELLO);
+    }
+
+    @Benchmark
+    public void taskCompleteBaseline(final HandlerState state, final InvocationState invocationState)
+    {
+        state.baseline.taskComplete(System.nanoTime(), invocationState.invocation, BenchmarkFixtures.SAY_HELLO);
+    }
+
+    @Benchmark
+    public void taskComplete(final HandlerState state, final InvocationState invocationState)
+    {
+        state.handler.taskComplete(System.nanoTime(), invocationState.invocation, BenchmarkFixtures.SAY_HELLO);
+    }
+}
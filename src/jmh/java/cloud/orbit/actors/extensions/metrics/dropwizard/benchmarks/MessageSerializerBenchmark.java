@@ -0,0 +1,119 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.extensions.MessageSerializer;
+import cloud.orbit.actors.extensions.metrics.dropwizard.InstrumentedMessageSerializer;
+import cloud.orbit.actors.runtime.BasicRuntime;
+import cloud.orbit.actors.runtime.Message;
+import cloud.orbit.actors.runtime.MessageDefinitions;
+
+/**
+ * Cost of {@link InstrumentedMessageSerializer} per message, against the serializer it decorates.
+ */
+public class MessageSerializerBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class SerializerState
+    {
+        @Param({ "64", "4096" })
+        int payloadSize;
+
+        MessageSerializer baseline;
+        InstrumentedMessageSerializer serializer;
+        byte[] payload;
+
+        @Setup
+        public void setup()
+        {
+            payload = new byte[payloadSize];
+            baseline = new FixedPayloadSerializer(payload);
+            serializer = new InstrumentedMessageSerializer(new MetricRegistry(), baseline);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MessageState
+    {
+        Message message;
+
+        @Setup
+        public void setup()
+        {
+            message = new Message();
+            message.setMessageType(MessageDefinitions.REQUEST_MESSAGE);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeMessageBaseline(final SerializerState state, final MessageState messageState) throws Exception
+    {
+        return state.baseline.serializeMessage(null, messageState.message);
+    }
+
+    @Benchmark
+    public byte[] serializeMessage(final SerializerState state, final MessageState messageState) throws Exception
+    {
+        return state.serializer.serializeMessage(null, messageState.message);
+    }
+
+    /**
+     * Serializer returning a preallocated payload, so the benchmark measures the instrumentation only.
+     */
+    private static final class FixedPayloadSerializer implements MessageSerializer
+    {
+        private final byte[] payload;
+        private final Message message = new Message();
+
+        FixedPayloadSerializer(final byte[] payload)
+        {
+            this.payload = payload;
+        }
+
+        @Override
+        public Message deserializeMessage(final BasicRuntime runtime, final byte[] payload) throws Exception
+        {
+            return message;
+        }
+
+        @Override
+        public byte[] serializeMessage(final BasicRuntime runtime, final Message message) throws Exception
+        {
+            return payload;
+        }
+    }
+}
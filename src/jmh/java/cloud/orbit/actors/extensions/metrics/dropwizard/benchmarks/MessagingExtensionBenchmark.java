@@ -0,0 +1,102 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.extensions.metrics.dropwizard.OrbitMetricsMessagingExtension;
+import cloud.orbit.actors.net.HandlerContext;
+import cloud.orbit.actors.runtime.Message;
+import cloud.orbit.actors.runtime.MessageDefinitions;
+
+/**
+ * Cost of {@link OrbitMetricsMessagingExtension} per outbound and inbound message.
+ */
+public class MessagingExtensionBenchmark
+{
+    private static final String SENT_TIMESTAMP_HEADER = "metrics-ts";
+
+    @State(Scope.Benchmark)
+    public static class ExtensionState
+    {
+        OrbitMetricsMessagingExtension extension;
+        HandlerContext context;
+
+        @Setup
+        public void setup()
+        {
+            extension = new OrbitMetricsMessagingExtension(new MetricRegistry());
+            context = BenchmarkFixtures.handlerContext();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MessageState
+    {
+        Message message;
+
+        @Setup
+        public void setup()
+        {
+            message = new Message();
+            message.setMessageType(MessageDefinitions.REQUEST_MESSAGE);
+            // as written by the sending node, so onRead updates the inbound timer
+            message.setHeader(SENT_TIMESTAMP_HEADER, Long.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    @Benchmark
+    public Object writeBaseline(final ExtensionState state, final MessageState messageState) throws Exception
+    {
+        return state.context.write(messageState.message);
+    }
+
+    @Benchmark
+    public Object write(final ExtensionState state, final MessageState messageState) throws Exception
+    {
+        return state.extension.write(state.context, messageState.message);
+    }
+
+    @Benchmark
+    public void onReadBaseline(final ExtensionState state, final MessageState messageState)
+    {
+        state.context.fireRead(messageState.message);
+    }
+
+    @Benchmark
+    public void onRead(final ExtensionState state, final MessageState messageState)
+    {
+        state.extension.onRead(state.context, messageState.message);
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches one metric handle per (actor interface, method) pair.
+ * <p>
+ * Handles are created lazily by the factory the first time a pair is seen and then served from a small open
+ * addressing table per actor interface, indexed by {@link Method#hashCode()}, so the lookup on the message path
+ * neither formats a metric name nor allocates. The tables are kept in a map owned by the cache rather than in a
+ * {@link ClassValue}: the values of a class value stay reachable from the actor classes, which would keep every
+ * cache ever created, and its metrics, alive for as long as the classes are loaded.
+ * <p>
+ * The number of handles can be {@link #limit limited}: pairs seen once the limit is reached share an overflow
+ * handle. Handles whose activity has not changed for an idle timeout can be {@link #enableIdleEviction evicted},
+ * which releases their metrics and frees room under the limit; a pair seen again gets a new handle. Owners
+ * reconfigure the cache in place, {@link #clear clearing} it when the handles must be created again.
+ * <p>
+ * Handles are created and evicted while holding the cache's lock, so a handle is never created from metrics that
+ * are being released: a pair seen during its eviction gets a handle created after the release.
+ */
+class ActorMethodCache<H>
+{
+    private final BiFunction<Class<?>, Method, H> factory;
+    private final Map<Class<?>, MethodTable<H>> tables = new ConcurrentHashMap<>();
+    private final MethodTable<H> undefinedTable = new MethodTable<>(this, null);
+    private final AtomicInteger handleCount = new AtomicInteger();
+    private volatile int maxHandles = Integer.MAX_VALUE;
+    private volatile H overflowHandle;
+    // the eviction settings are held here rather than by the sweep task, which only holds the cache weakly
+    private ToLongFunction<H> activity;
+    private Predicate<H> busy;
+    private BiConsumer<Class<?>, Method> release;
+    private long idleNanos;
+    private ScheduledFuture<?> sweep;
+
+    ActorMethodCache(final BiFunction<Class<?>, Method, H> factory)
+    {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the handle for the pair, creating it on first use.
+     *
+     * @param actorInterface the actor interface, or null if unknown
+     * @param method         the invoked method, or null if unknown
+     */
+    H get(final Class<?> actorInterface, final Method method)
+    {
+        final MethodTable<H> table = actorInterface == null ? undefinedTable : table(actorInterface);
+        return table.get(method);
+    }
+
+    /**
+     * Resolves the handles for every public method of the interface ahead of the first message.
+     */
+    void warmUp(final Class<?> actorInterface)
+    {
+        final MethodTable<H> table = table(actorInterface);
+        for (final Method method : table.methods)
+        {
+            if (method != null)
+            {
+                table.get(method);
+            }
+        }
+    }
+
+    private MethodTable<H> table(final Class<?> actorInterface)
+    {
+        final MethodTable<H> table = tables.get(actorInterface);
+        return table != null ? table : tables.computeIfAbsent(actorInterface, type -> new MethodTable<>(this, type));
+    }
+
+    /**
+     * Limits the number of handles; the pairs seen once the limit is reached share the overflow handle until
+     * idle handles are evicted. Limiting it again replaces the previous overflow handle.
+     */
+    synchronized void limit(final int maxHandles, final H overflowHandle)
+    {
+        final H previous = this.overflowHandle;
+        if (previous != null && previous != overflowHandle)
+        {
+            // the pairs sharing the previous overflow handle are resolved again
+            undefinedTable.removeHandles(previous);
+            for (final MethodTable<H> table : tables.values())
+            {
+                table.removeHandles(previous);
+            }
+        }
+        this.overflowHandle = overflowHandle;
+        this.maxHandles = maxHandles;
+    }
+
+    /**
+     * Drops every handle, without releasing their metrics; the pairs get new handles from the factory on next use.
+     */
+    synchronized void clear()
+    {
+        undefinedTable.clear();
+        for (final MethodTable<H> table : tables.values())
+        {
+            table.clear();
+        }
+        handleCount.set(0);
+    }
+
+    /**
+     * Evicts the handles whose activity has not changed for the idle timeout, at a fraction of the timeout, for as
+     * long as the cache is reachable. Enabling it again replaces the previous idle timeout.
+     *
+     * @param activity returns a value that changes whenever the handle is used, such as its count
+     * @param release  releases the metrics of an evicted handle, given its actor interface and method
+     */
+    void enableIdleEviction(final ToLongFunction<H> activity, final BiConsumer<Class<?>, Method> release, final long idleTimeout, final TimeUnit unit)
+    {
+        enableIdleEviction(activity, handle -> false, release, idleTimeout, unit);
+    }
+
+    /**
+     * Evicts the handles whose activity has not changed for the idle timeout, like
+     * {@link #enableIdleEviction(ToLongFunction, BiConsumer, long, TimeUnit)}, but never the handles that are busy,
+     * such as those counting calls in flight.
+     *
+     * @param busy tells whether a handle is still in use even though its activity did not change
+     */
+    synchronized void enableIdleEviction(final ToLongFunction<H> activity, final Predicate<H> busy, final BiConsumer<Class<?>, Method> release, final long idleTimeout, final TimeUnit unit)
+    {
+        this.activity = activity;
+        this.busy = busy;
+        this.release = release;
+        this.idleNanos = unit.toNanos(idleTimeout);
+        // sweep four times per idle timeout, as the peer caches do
+        final long sweepPeriodMillis = Math.max(1, unit.toMillis(idleTimeout) / 4);
+        if (sweep != null)
+        {
+            sweep.cancel(false);
+        }
+        sweep = MetricsScheduler.scheduleAtFixedRate(this, ActorMethodCache::sweepIdle, sweepPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sweepIdle()
+    {
+        sweepIdle(activity, busy, release, idleNanos);
+    }
+
+    /**
+     * Evicts the handles whose activity did not change for the idle duration, over successive sweeps.
+     */
+    void sweepIdle(final ToLongFunction<H> activity, final BiConsumer<Class<?>, Method> release, final long idleNanos)
+    {
+        sweepIdle(activity, handle -> false, release, idleNanos);
+    }
+
+    /**
+     * Evicts the handles that are not busy and whose activity did not change for the idle duration, over successive
+     * sweeps.
+     */
+    synchronized void sweepIdle(final ToLongFunction<H> activity, final Predicate<H> busy, final BiConsumer<Class<?>, Method> release, final long idleNanos)
+    {
+        final long now = System.nanoTime();
+        for (final MethodTable<H> table : tables.values())
+        {
+            table.evictIdle(activity, busy, release, idleNanos, now);
+        }
+    }
+
+    int size()
+    {
+        return handleCount.get();
+    }
+
+    private H create(final Class<?> actorInterface, final Method method)
+    {
+        final H overflow = overflowHandle;
+        if (overflow != null && handleCount.get() >= maxHandles)
+        {
+            return overflow;
+        }
+        return factory.apply(actorInterface, method);
+    }
+
+    private boolean isCounted(final H handle)
+    {
+        return handle != overflowHandle;
+    }
+
+    private static final class MethodTable<H>
+    {
+        private final ActorMethodCache<H> cache;
+        private final Class<?> actorInterface;
+        private final Method[] methods;
+        private final AtomicReferenceArray<H> handles;
+        private final int mask;
+        private volatile H undefinedMethodHandle;
+        private final Map<Method, H> foreignMethods = new ConcurrentHashMap<>();
+        // only accessed by the eviction sweep
+        private final long[] lastActivities;
+        private final long[] lastActiveNanos;
+        private final Map<Method, long[]> foreignActivities = new HashMap<>();
+
+        MethodTable(final ActorMethodCache<H> cache, final Class<?> actorInterface)
+        {
+            this.cache = cache;
+            this.actorInterface = actorInterface;
+            final Method[] declared = actorInterface == null ? new Method[0] : actorInterface.getMethods();
+            int capacity = 2;
+            while (capacity < declared.length * 2)
+            {
+                capacity <<= 1;
+            }
+            methods = new Method[capacity];
+            handles = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+            for (final Method method : declared)
+            {
+                int slot = method.hashCode() & mask;
+                while (methods[slot] != null)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                methods[slot] = method;
+            }
+            lastActivities = new long[capacity];
+            lastActiveNanos = new long[capacity];
+        }
+
+        H get(final Method method)
+        {
+            if (method == null)
+            {
+                H handle = undefinedMethodHandle;
+                if (handle == null)
+                {
+                    handle = cache.factory.apply(actorInterface, null);
+                    undefinedMethodHandle = handle;
+                }
+                return handle;
+            }
+            int slot = method.hashCode() & mask;
+            Method candidate;
+            while ((candidate = methods[slot]) != null)
+            {
+                if (candidate == method || candidate.equals(method))
+                {
+                    final H handle = handles.get(slot);
+                    return handle != null ? handle : create(slot, candidate);
+                }
+                slot = (slot + 1) & mask;
+            }
+            // methods not declared by the interface (e.g. from a subclass proxy) still get a handle
+            final H handle = foreignMethods.get(method);
+            if (handle != null)
+            {
+                return handle;
+            }
+            synchronized (cache)
+            {
+                return foreignMethods.computeIfAbsent(method, m -> {
+                    final H created = cache.create(actorInterface, m);
+                    if (cache.isCounted(created))
+                    {
+                        cache.handleCount.incrementAndGet();
+                    }
+                    return created;
+                });
+            }
+        }
+
+        private H create(final int slot, final Method method)
+        {
+            synchronized (cache)
+            {
+                H handle = handles.get(slot);
+                if (handle == null)
+                {
+                    handle = cache.create(actorInterface, method);
+                    handles.set(slot, handle);
+                    if (cache.isCounted(handle))
+                    {
+                        cache.handleCount.incrementAndGet();
+                    }
+                }
+                return handle;
+            }
+        }
+
+        // called with the cache's lock held
+        void removeHandles(final H removed)
+        {
+            for (int slot = 0; slot < methods.length; slot++)
+            {
+                handles.compareAndSet(slot, removed, null);
+            }
+            foreignMethods.values().removeIf(handle -> handle == removed);
+        }
+
+        // called with the cache's lock held
+        void clear()
+        {
+            for (int slot = 0; slot < methods.length; slot++)
+            {
+                handles.set(slot, null);
+                lastActiveNanos[slot] = 0;
+            }
+            undefinedMethodHandle = null;
+            foreignMethods.clear();
+            foreignActivities.clear();
+        }
+
+        // called with the cache's lock held
+        void evictIdle(final ToLongFunction<H> activity, final Predicate<H> busy, final BiConsumer<Class<?>, Method> release, final long idleNanos, final long now)
+        {
+            for (int slot = 0; slot < methods.length; slot++)
+            {
+                final H handle = handles.get(slot);
+                if (handle == null)
+                {
+                    continue;
+                }
+                if (!cache.isCounted(handle))
+                {
+                    // retry overflowed pairs, in case room was freed
+                    handles.compareAndSet(slot, handle, null);
+                    continue;
+                }
+                final long current = activity.applyAsLong(handle);
+                if (lastActiveNanos[slot] == 0 || current != lastActivities[slot] || busy.test(handle))
+                {
+                    lastActivities[slot] = current;
+                    lastActiveNanos[slot] = now;
+                }
+                else if (now - lastActiveNanos[slot] >= idleNanos)
+                {
+                    // release first: the threads still holding the handle may record a few events that are lost,
+                    // but no new handle can be created from the released metrics
+                    release.accept(actorInterface, methods[slot]);
+                    handles.set(slot, null);
+                    lastActiveNanos[slot] = 0;
+                    cache.handleCount.decrementAndGet();
+                }
+            }
+            final Iterator<Map.Entry<Method, H>> iterator = foreignMethods.entrySet().iterator();
+            while (iterator.hasNext())
+            {
+                final Map.Entry<Method, H> entry = iterator.next();
+                final H handle = entry.getValue();
+                if (!cache.isCounted(handle))
+                {
+                    iterator.remove();
+                    continue;
+                }
+                final long current = activity.applyAsLong(handle);
+                final long[] last = foreignActivities.get(entry.getKey());
+                if (last == null || current != last[0] || busy.test(handle))
+                {
+                    foreignActivities.put(entry.getKey(), new long[] { current, now });
+                }
+                else if (now - last[1] >= idleNanos)
+                {
+                    release.accept(actorInterface, entry.getKey());
+                    iterator.remove();
+                    foreignActivities.remove(entry.getKey());
+                    cache.handleCount.decrementAndGet();
+                }
+            }
+        }
+    }
+}
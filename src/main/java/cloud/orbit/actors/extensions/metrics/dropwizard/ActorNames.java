@@ -0,0 +1,132 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cloud.orbit.actors.Actor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The name of an actor interface in metric names.
+ * <p>
+ * Actor interfaces are named by their simple name, unless another actor interface shares it: every interface of a
+ * shared simple name is then named by its fully qualified name, so their metrics are never merged. Namesakes are
+ * looked up in the packages defined by the class loader of the interface, which hold every actor of the
+ * application once the stage has scanned them at startup, so every node and every restart names an interface the
+ * same way. Setting the {@value #QUALIFIED_NAMES_PROPERTY} system property to {@code true} names every interface by
+ * its fully qualified name.
+ */
+final class ActorNames
+{
+    private static final Logger logger = LoggerFactory.getLogger(ActorNames.class);
+
+    static final String QUALIFIED_NAMES_PROPERTY = "orbit.metrics.qualifiedActorNames";
+
+    private static final boolean QUALIFIED_NAMES = Boolean.getBoolean(QUALIFIED_NAMES_PROPERTY);
+    // class names rather than classes, so actor interfaces can still be unloaded
+    private static final ConcurrentMap<String, String> SIMPLE_NAME_OWNERS = new ConcurrentHashMap<>();
+    private static final ClassValue<String> NAMES = new ClassValue<String>()
+    {
+        @Override
+        protected String computeValue(final Class<?> actorClass)
+        {
+            return QUALIFIED_NAMES || hasNamesake(actorClass) ? actorClass.getName() : simpleName(actorClass);
+        }
+    };
+
+    /**
+     * Tag value of the series shared by the metrics over a series limit.
+     */
+    static final String OVERFLOW = "(overflow)";
+
+    private ActorNames()
+    {
+    }
+
+    static String of(final Class<?> actorClass)
+    {
+        return NAMES.get(actorClass);
+    }
+
+    /**
+     * Whether an actor interface of another package has the same simple name. Nested interfaces are not looked up.
+     */
+    static boolean hasNamesake(final Class<?> actorClass)
+    {
+        final ClassLoader classLoader = actorClass.getClassLoader();
+        if (classLoader == null || actorClass.getEnclosingClass() != null)
+        {
+            return false;
+        }
+        final String simpleName = actorClass.getSimpleName();
+        for (final Package definedPackage : classLoader.getDefinedPackages())
+        {
+            final String candidate = definedPackage.getName() + '.' + simpleName;
+            // the resource lookup keeps the packages without a namesake from throwing ClassNotFoundException
+            if (!definedPackage.getName().equals(actorClass.getPackageName())
+                    && classLoader.getResource(candidate.replace('.', '/') + ".class") != null
+                    && isActorInterface(candidate, classLoader))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isActorInterface(final String className, final ClassLoader classLoader)
+    {
+        try
+        {
+            final Class<?> type = Class.forName(className, false, classLoader);
+            return type.isInterface() && Actor.class.isAssignableFrom(type);
+        }
+        catch (final ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    private static String simpleName(final Class<?> actorClass)
+    {
+        final String simpleName = actorClass.getSimpleName();
+        final String owner = SIMPLE_NAME_OWNERS.putIfAbsent(simpleName, actorClass.getName());
+        // the same interface loaded again by another class loader is not a collision
+        if (owner != null && !owner.equals(actorClass.getName()))
+        {
+            logger.warn("Actor interfaces {} and {} share a simple name and their metrics are merged, as {} was "
+                    + "not loaded when {} was first named; set -D{}=true to name actor interfaces by their fully "
+                    + "qualified name", owner, actorClass.getName(), actorClass.getName(), owner, QUALIFIED_NAMES_PROPERTY);
+        }
+        return simpleName;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+/**
+ * Compact map from an actor instance (by identity) to a single primitive timestamp.
+ * <p>
+ * Entries live in striped open addressing tables of parallel key and {@code long} arrays, so tracking an
+ * actor costs one array slot instead of a formatted key, a {@code Timer.Context} and a map node.
+ * Entries older than the maximum age are dropped whenever a stripe would otherwise grow, which bounds the
+ * memory held for lifecycle phases that never complete.
+ */
+final class ActorTimestampTable
+{
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long maxAgeNanos;
+
+    /**
+     * @param maxAgeNanos age after which an entry is considered abandoned, or {@link Long#MAX_VALUE} to keep
+     *                    entries until they are removed
+     */
+    ActorTimestampTable(final long maxAgeNanos)
+    {
+        this.maxAgeNanos = maxAgeNanos;
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    void put(final Object actor, final long timestampNanos)
+    {
+        final int hash = hash(actor);
+        stripes[hash & (STRIPES - 1)].put(actor, hash, timestampNanos, maxAgeNanos);
+    }
+
+    /**
+     * Removes the entry of the actor.
+     *
+     * @return the timestamp stored for the actor, or {@link #NO_TIMESTAMP} if there was none
+     */
+    long remove(final Object actor)
+    {
+        final int hash = hash(actor);
+        return stripes[hash & (STRIPES - 1)].remove(actor, hash);
+    }
+
+    /**
+     * Drops every entry older than the maximum age.
+     */
+    void purge()
+    {
+        final long now = System.nanoTime();
+        for (final Stripe stripe : stripes)
+        {
+            stripe.purge(now, maxAgeNanos);
+        }
+    }
+
+    int size()
+    {
+        int size = 0;
+        for (final Stripe stripe : stripes)
+        {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private static int hash(final Object actor)
+    {
+        final int h = System.identityHashCode(actor) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Stripe
+    {
+        private Object[] keys = new Object[INITIAL_CAPACITY];
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private int size;
+
+        synchronized void put(final Object actor, final int hash, final long timestampNanos, final long maxAgeNanos)
+        {
+            if ((size + 1) * 2 > keys.length)
+            {
+                purge(System.nanoTime(), maxAgeNanos);
+                if ((size + 1) * 2 > keys.length)
+                {
+                    resize(keys.length * 2);
+                }
+            }
+            final int mask = keys.length - 1;
+            int slot = (hash >>> 4) & mask;
+            Object key;
+            while ((key = keys[slot]) != null)
+            {
+                if (key == actor)
+                {
+                    timestamps[slot] = timestampNanos;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = actor;
+            timestamps[slot] = timestampNanos;
+            size++;
+        }
+
+        synchronized long remove(final Object actor, final int hash)
+        {
+            final int mask = keys.length - 1;
+            int slot = (hash >>> 4) & mask;
+            Object key;
+            while ((key = keys[slot]) != null)
+            {
+                if (key == actor)
+                {
+                    final long timestamp = timestamps[slot];
+                    delete(slot);
+                    return timestamp;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NO_TIMESTAMP;
+        }
+
+        synchronized void purge(final long now, final long maxAgeNanos)
+        {
+            if (maxAgeNanos == Long.MAX_VALUE || size == 0)
+            {
+                return;
+            }
+            int slot = 0;
+            while (slot < keys.length)
+            {
+                if (keys[slot] != null && now - timestamps[slot] > maxAgeNanos)
+                {
+                    // deleting shifts a later entry into this slot, so look at it again
+                    delete(slot);
+                }
+                else
+                {
+                    slot++;
+                }
+            }
+        }
+
+        synchronized int size()
+        {
+            return size;
+        }
+
+        private void delete(int slot)
+        {
+            final int mask = keys.length - 1;
+            keys[slot] = null;
+            size--;
+            int next = slot;
+            while (true)
+            {
+                next = (next + 1) & mask;
+                final Object key = keys[next];
+                if (key == null)
+                {
+                    return;
+                }
+                final int home = (hash(key) >>> 4) & mask;
+                // move the entry back if its home slot is not cyclically within (slot, next]
+                final boolean movable = slot <= next
+                        ? (home <= slot || home > next)
+                        : (home <= slot && home > next);
+                if (movable)
+                {
+                    keys[slot] = key;
+                    timestamps[slot] = timestamps[next];
+                    keys[next] = null;
+                    slot = next;
+                }
+            }
+        }
+
+        private void resize(final int capacity)
+        {
+            final Object[] oldKeys = keys;
+            final long[] oldTimestamps = timestamps;
+            keys = new Object[capacity];
+            timestamps = new long[capacity];
+            final int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                final Object key = oldKeys[i];
+                if (key != null)
+                {
+                    int slot = (hash(key) >>> 4) & mask;
+                    while (keys[slot] != null)
+                    {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                    timestamps[slot] = oldTimestamps[i];
+                }
+            }
+        }
+    }
+}
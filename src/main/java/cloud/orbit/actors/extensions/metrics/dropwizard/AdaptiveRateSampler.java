@@ -0,0 +1,91 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records one event out of a period that is re-evaluated every window so that about the target number of
+ * events per second is recorded.
+ * <p>
+ * Events that are sampled out only read the current period and the calling thread's random generator.
+ * Only recorded events, which are bounded by the budget, count towards the next adjustment.
+ */
+final class AdaptiveRateSampler implements Sampler
+{
+    private static final int MAX_PERIOD = 1 << 20;
+
+    private final double targetPerWindow;
+    private final long windowNanos;
+    private final LongAdder recorded = new LongAdder();
+    private volatile int period = 1;
+    private volatile long windowStart = System.nanoTime();
+
+    AdaptiveRateSampler(final long targetPerSecond, final long windowNanos)
+    {
+        this.targetPerWindow = targetPerSecond * (windowNanos / 1e9);
+        this.windowNanos = windowNanos;
+    }
+
+    @Override
+    public long sample()
+    {
+        final int current = period;
+        if (current > 1 && ThreadLocalRandom.current().nextInt(current) != 0)
+        {
+            return 0;
+        }
+        recorded.increment();
+        final long now = System.nanoTime();
+        if (now - windowStart >= windowNanos)
+        {
+            adjust(now);
+        }
+        return current;
+    }
+
+    int getPeriod()
+    {
+        return period;
+    }
+
+    private synchronized void adjust(final long now)
+    {
+        final long elapsed = now - windowStart;
+        if (elapsed < windowNanos)
+        {
+            return;
+        }
+        final double estimatedEvents = recorded.sumThenReset() * (double) period * windowNanos / elapsed;
+        final double next = Math.ceil(estimatedEvents / targetPerWindow);
+        period = (int) Math.max(1, Math.min(MAX_PERIOD, next));
+        windowStart = now;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Timer;
+
+import cloud.orbit.actors.runtime.Invocation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * What is recorded when the response to a call arrives, gathered from {@link CallOutcomeMetrics} and
+ * {@link CallGraph} so the actor extension registers a single completion callback per call, timed from a single
+ * start time.
+ */
+final class CallCompletion implements BiConsumer<Object, Throwable>
+{
+    private final long startNanos = System.nanoTime();
+    private CallOutcomeMetrics.MethodOutcomes outcomes;
+    private Timer callTime;
+    private long callTimeWeight;
+
+    private CallCompletion()
+    {
+    }
+
+    /**
+     * @return the completion of a call awaiting a response, or null for one way calls
+     */
+    static CallCompletion of(final Invocation invocation)
+    {
+        return invocation.getCompletion() == null || invocation.isOneWay() ? null : new CallCompletion();
+    }
+
+    void setOutcomes(final CallOutcomeMetrics.MethodOutcomes outcomes)
+    {
+        this.outcomes = outcomes;
+    }
+
+    void setCallTime(final Timer callTime, final long weight)
+    {
+        this.callTime = callTime;
+        this.callTimeWeight = weight;
+    }
+
+    /**
+     * Registers the callback on the invocation's completion, if anything is to be recorded.
+     */
+    void awaitResponse(final Invocation invocation)
+    {
+        if (outcomes != null || callTime != null)
+        {
+            invocation.getCompletion().whenComplete(this);
+        }
+    }
+
+    @Override
+    public void accept(final Object result, final Throwable error)
+    {
+        final long durationNanos = System.nanoTime() - startNanos;
+        if (outcomes != null)
+        {
+            outcomes.completed(durationNanos, error);
+        }
+        if (callTime != null)
+        {
+            ScaledTimer.update(callTime, durationNanos, TimeUnit.NANOSECONDS, callTimeWeight);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls between actor types: for each (caller type, callee type, method) edge, the rate of calls sent from this node
+ * and the time until their response.
+ * <p>
+ * Edges are recorded by the actor extension as invocations are written, from the calling actor's context; calls
+ * made from outside an actor have the caller {@code (external)}. Each edge registers
+ * {@code orbit.actors.calls[caller:%s,actor:%s,method:%s]}, marked for every call, and
+ * {@code orbit.actors.call_time[caller:%s,actor:%s,method:%s]}, timing the sampled calls that expect a response.
+ * The number of edges is bounded: once the limit is reached, new edges share the {@code (overflow)} edge.
+ * <p>
+ * {@link #snapshot()} returns the current graph. The rate of an edge divided by the rate of messages received by the
+ * caller type gives the fan out of that edge, and multiplying fan outs along a path gives the amplification of the
+ * calls entering it.
+ * <pre>
+ * CallGraph callGraph = new CallGraph(metricRegistry);
+ * actorExtension.setCallGraph(callGraph);
+ * </pre>
+ */
+public class CallGraph
+{
+    public static final String EXTERNAL_CALLER = "(external)";
+
+    private static final int DEFAULT_MAX_EDGES = 1000;
+
+    private final MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+    private final SamplingStrategy samplingStrategy;
+    private final int maxEdges;
+    private final AtomicInteger edgeCount = new AtomicInteger();
+    private final Queue<EdgeMetrics> allEdges = new ConcurrentLinkedQueue<>();
+    private final ClassValue<ActorMethodCache<EdgeMetrics>> callerEdges = new ClassValue<ActorMethodCache<EdgeMetrics>>()
+    {
+        @Override
+        protected ActorMethodCache<EdgeMetrics> computeValue(final Class<?> callerClass)
+        {
+            return newCallerEdges(ActorNames.of(callerClass));
+        }
+    };
+    private final ActorMethodCache<EdgeMetrics> externalEdges = newCallerEdges(EXTERNAL_CALLER);
+    private volatile EdgeMetrics overflowEdge;
+
+    public CallGraph(final MetricRegistry metricRegistry)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), SamplingStrategy.none(), DEFAULT_MAX_EDGES);
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the call timers
+     * @param samplingStrategy how calls are sampled for timing, with one sampler per edge
+     * @param maxEdges         number of edges with their own metrics, the others share the overflow edge
+     */
+    public CallGraph(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final SamplingStrategy samplingStrategy, final int maxEdges)
+    {
+        this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        this.samplingStrategy = samplingStrategy;
+        this.maxEdges = maxEdges;
+    }
+
+    /**
+     * Called for each invocation written by the actor extension, which times the call with the other metrics of the
+     * call once the response arrives.
+     *
+     * @param callerClass the interface of the calling actor, or null if the call is not made from an actor
+     * @param completion  the completion of the call, or null for one way calls
+     */
+    void invocationSent(final Class<?> callerClass, final Invocation invocation, final CallCompletion completion)
+    {
+        final Class<?> actorClass = RemoteReference.getInterfaceClass(invocation.getToReference());
+        final ActorMethodCache<EdgeMetrics> edges = callerClass == null ? externalEdges : callerEdges.get(callerClass);
+        final EdgeMetrics edge = edges.get(actorClass, invocation.getMethod());
+        edge.calls.mark();
+        if (completion == null)
+        {
+            return;
+        }
+        final long weight = edge.callTimeSampler.sample();
+        if (weight != 0)
+        {
+            completion.setCallTime(edge.callTime, weight);
+        }
+    }
+
+    /**
+     * Returns the edges of the graph, with their current weights.
+     */
+    public List<Edge> snapshot()
+    {
+        final List<Edge> snapshot = new ArrayList<>();
+        for (final EdgeMetrics edge : allEdges)
+        {
+            final Snapshot callTimes = edge.callTime.getSnapshot();
+            snapshot.add(new Edge(edge.caller, edge.actor, edge.method, edge.calls.getCount(), edge.calls.getOneMinuteRate(),
+                    edge.callTime.getCount(), callTimes.getMedian(), callTimes.get99thPercentile()));
+        }
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    private ActorMethodCache<EdgeMetrics> newCallerEdges(final String callerName)
+    {
+        return new ActorMethodCache<>((actorClass, method) -> createEdge(callerName, actorClass, method));
+    }
+
+    private EdgeMetrics createEdge(final String callerName, final Class<?> actorClass, final Method method)
+    {
+        if (edgeCount.incrementAndGet() > maxEdges)
+        {
+            edgeCount.decrementAndGet();
+            return getOverflowEdge();
+        }
+        final String actorName = actorClass == null ? "(undefined)" : ActorNames.of(actorClass);
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        final EdgeMetrics edge = new EdgeMetrics(callerName, actorName, methodName);
+        allEdges.add(edge);
+        return edge;
+    }
+
+    private synchronized EdgeMetrics getOverflowEdge()
+    {
+        if (overflowEdge == null)
+        {
+            overflowEdge = new EdgeMetrics(ActorNames.OVERFLOW, ActorNames.OVERFLOW, ActorNames.OVERFLOW);
+            allEdges.add(overflowEdge);
+        }
+        return overflowEdge;
+    }
+
+    public static String getCallsMetricsKey(final String caller, final String actor, final String method)
+    {
+        return MetricName.of("orbit.actors.calls", "caller", caller, "actor", actor, "method", method).toString();
+    }
+
+    public static String getCallTimeMetricsKey(final String caller, final String actor, final String method)
+    {
+        return MetricName.of("orbit.actors.call_time", "caller", caller, "actor", actor, "method", method).toString();
+    }
+
+    /**
+     * One edge of the call graph at the time of the snapshot.
+     */
+    public static final class Edge
+    {
+        private final String caller;
+        private final String actor;
+        private final String method;
+        private final long calls;
+        private final double callRate;
+        private final long timedCalls;
+        private final double medianCallTime;
+        private final double p99CallTime;
+
+        Edge(final String caller, final String actor, final String method, final long calls, final double callRate,
+             final long timedCalls, final double medianCallTime, final double p99CallTime)
+        {
+            this.caller = caller;
+            this.actor = actor;
+            this.method = method;
+            this.calls = calls;
+            this.callRate = callRate;
+            this.timedCalls = timedCalls;
+            this.medianCallTime = medianCallTime;
+            this.p99CallTime = p99CallTime;
+        }
+
+        /**
+         * The calling actor type, or {@link #EXTERNAL_CALLER}.
+         */
+        public String getCaller()
+        {
+            return caller;
+        }
+
+        /**
+         * The called actor type.
+         */
+        public String getActor()
+        {
+            return actor;
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Calls sent since the edge was created.
+         */
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        /**
+         * Calls per second, over the last minute.
+         */
+        public double getCallRate()
+        {
+            return callRate;
+        }
+
+        /**
+         * Calls that completed with a response since the edge was created, rescaled for sampling.
+         */
+        public long getTimedCalls()
+        {
+            return timedCalls;
+        }
+
+        /**
+         * Median time until the response, in nanoseconds.
+         */
+        public double getMedianCallTime()
+        {
+            return medianCallTime;
+        }
+
+        /**
+         * 99th percentile of the time until the response, in nanoseconds.
+         */
+        public double getP99CallTime()
+        {
+            return p99CallTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return caller + " -> " + actor + "." + method + " " + calls;
+        }
+    }
+
+    /**
+     * The metrics of one edge, resolved once per caller type and called method.
+     */
+    private final class EdgeMetrics
+    {
+        private final String caller;
+        private final String actor;
+        private final String method;
+        private final Meter calls;
+        private final Timer callTime;
+        private final Sampler callTimeSampler;
+
+        EdgeMetrics(final String caller, final String actor, final String method)
+        {
+            this.caller = caller;
+            this.actor = actor;
+            this.method = method;
+            this.calls = metricRegistry.meter(getCallsMetricsKey(caller, actor, method));
+            this.callTime = reservoirFactory.scaledTimer(metricRegistry, getCallTimeMetricsKey(caller, actor, method));
+            this.callTimeSampler = samplingStrategy.newSampler();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outcome of the calls sent from this node, per called actor type and method: how many succeeded, failed or timed
+ * out, how long each outcome took, and how many calls are awaiting their response.
+ * <p>
+ * Calls are followed from the caller's side, where the actor extension writes the invocation, until the completion
+ * of the task returned to the caller, because response timeouts are only seen there. For each (actor, method) pair
+ * the timers {@code orbit.actors.call_outcome[actor:%s,method:%s,outcome:success|failure|timeout]} count and time
+ * the completed calls, and the counter {@code orbit.actors.in_flight[actor:%s,method:%s]} holds the calls awaiting
+ * a response. One way calls are not followed. The timers and counter count into striped adders, so concurrent calls
+ * do not contend on a single counter.
+ * <pre>
+ * CallOutcomeMetrics callOutcomeMetrics = new CallOutcomeMetrics(metricRegistry);
+ * actorExtension.setCallOutcomeMetrics(callOutcomeMetrics);
+ * </pre>
+ */
+public class CallOutcomeMetrics
+{
+    private final MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+    private final ActorMethodCache<MethodOutcomes> methodOutcomes;
+
+    public CallOutcomeMetrics(final MetricRegistry metricRegistry)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying());
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the outcome timers
+     */
+    public CallOutcomeMetrics(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory)
+    {
+        this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        this.methodOutcomes = new ActorMethodCache<>(this::createMethodOutcomes);
+    }
+
+    /**
+     * Bounds the outcome metrics: at most {@code maxSeries} (actor, method) pairs get their own metrics, the others
+     * share the {@code [actor:(overflow),method:(overflow)]} metrics, and the metrics of pairs not called for the
+     * idle timeout are removed from the registry. The metrics of pairs with calls in flight are kept, however long
+     * the calls take. Call once.
+     */
+    public void limitMethodSeries(final int maxSeries, final long idleTimeout, final TimeUnit unit)
+    {
+        methodOutcomes.limit(maxSeries, createMethodOutcomes(ActorNames.OVERFLOW, ActorNames.OVERFLOW));
+        methodOutcomes.enableIdleEviction(
+                outcomes -> outcomes.success.getCount() + outcomes.failure.getCount() + outcomes.timeout.getCount()
+                        + outcomes.inFlight.getCount(),
+                outcomes -> outcomes.inFlight.getCount() != 0,
+                this::removeMethodOutcomes, idleTimeout, unit);
+    }
+
+    /**
+     * Called for each invocation written by the actor extension, which records the outcome with the other metrics
+     * of the call once the response arrives.
+     *
+     * @param completion the completion of the call, or null for one way calls
+     */
+    void invocationSent(final Invocation invocation, final CallCompletion completion)
+    {
+        if (completion == null)
+        {
+            return;
+        }
+        final Class<?> actorClass = RemoteReference.getInterfaceClass(invocation.getToReference());
+        final MethodOutcomes outcomes = methodOutcomes.get(actorClass, invocation.getMethod());
+        outcomes.inFlight.inc();
+        completion.setOutcomes(outcomes);
+    }
+
+    private MethodOutcomes createMethodOutcomes(final Class<?> actorClass, final Method method)
+    {
+        final String actorName = actorClass == null ? "(undefined)" : ActorNames.of(actorClass);
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        return createMethodOutcomes(actorName, methodName);
+    }
+
+    private MethodOutcomes createMethodOutcomes(final String actorName, final String methodName)
+    {
+        return new MethodOutcomes(
+                reservoirFactory.timer(metricRegistry, getCallOutcomeMetricsKey(actorName, methodName, "success")),
+                reservoirFactory.timer(metricRegistry, getCallOutcomeMetricsKey(actorName, methodName, "failure")),
+                reservoirFactory.timer(metricRegistry, getCallOutcomeMetricsKey(actorName, methodName, "timeout")),
+                metricRegistry.counter(getInFlightMetricsKey(actorName, methodName)));
+    }
+
+    private void removeMethodOutcomes(final Class<?> actorClass, final Method method)
+    {
+        final String actorName = actorClass == null ? "(undefined)" : ActorNames.of(actorClass);
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        metricRegistry.remove(getCallOutcomeMetricsKey(actorName, methodName, "success"));
+        metricRegistry.remove(getCallOutcomeMetricsKey(actorName, methodName, "failure"));
+        metricRegistry.remove(getCallOutcomeMetricsKey(actorName, methodName, "timeout"));
+        metricRegistry.remove(getInFlightMetricsKey(actorName, methodName));
+    }
+
+    private static boolean isTimeout(final Throwable error)
+    {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null)
+        {
+            cause = cause.getCause();
+        }
+        return cause instanceof TimeoutException;
+    }
+
+    public static String getCallOutcomeMetricsKey(final String actorName, final String methodName, final String outcome)
+    {
+        return MetricName.of("orbit.actors.call_outcome", "actor", actorName, "method", methodName, "outcome", outcome).toString();
+    }
+
+    public static String getInFlightMetricsKey(final String actorName, final String methodName)
+    {
+        return MetricName.of("orbit.actors.in_flight", "actor", actorName, "method", methodName).toString();
+    }
+
+    /**
+     * The outcome metrics of one actor method, resolved once and reused for every call.
+     */
+    static final class MethodOutcomes
+    {
+        private final Timer success;
+        private final Timer failure;
+        private final Timer timeout;
+        private final Counter inFlight;
+
+        MethodOutcomes(final Timer success, final Timer failure, final Timer timeout, final Counter inFlight)
+        {
+            this.success = success;
+            this.failure = failure;
+            this.timeout = timeout;
+            this.inFlight = inFlight;
+        }
+
+        void completed(final long durationNanos, final Throwable error)
+        {
+            inFlight.dec();
+            final Timer outcome = error == null ? success : isTimeout(error) ? timeout : failure;
+            outcome.update(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates, per actor type and time window, how many distinct actors received messages on this node and how
+ * many distinct actors on this node called actors of the type.
+ * <p>
+ * Each actor type keeps two {@link HyperLogLog} sketches of a fixed size. At the end of each window they are
+ * published to the gauges and replaced by empty ones. Callers are counted on the caller's node, so the cluster wide
+ * number of distinct callers of a type is the estimate of the union of every node's
+ * {@link #getDistinctCallers(Class) sketch}, obtained by {@link HyperLogLog#merge merging} them. Calls made from
+ * outside an actor are not counted as callers.
+ * <pre>
+ * CardinalityTracker cardinalityTracker = new CardinalityTracker(metricRegistry, 1, TimeUnit.MINUTES);
+ * actorExtension.setCardinalityTracker(cardinalityTracker);
+ * </pre>
+ */
+public class CardinalityTracker
+{
+    private final MetricRegistry metricRegistry;
+    private final int precision;
+    private final Queue<ActorTypeCardinality> actorTypes = new ConcurrentLinkedQueue<>();
+    private final ClassValue<ActorTypeCardinality> actorTypeCardinality = new ClassValue<ActorTypeCardinality>()
+    {
+        @Override
+        protected ActorTypeCardinality computeValue(final Class<?> actorClass)
+        {
+            final ActorTypeCardinality cardinality = new ActorTypeCardinality(actorClass);
+            actorTypes.add(cardinality);
+            return cardinality;
+        }
+    };
+    private final ClassValue<Long> interfaceHashes = new ClassValue<Long>()
+    {
+        @Override
+        protected Long computeValue(final Class<?> actorClass)
+        {
+            return HyperLogLog.hash(actorClass.getName());
+        }
+    };
+
+    public CardinalityTracker(final MetricRegistry metricRegistry, final long window, final TimeUnit unit)
+    {
+        this(metricRegistry, HyperLogLog.DEFAULT_PRECISION, window, unit);
+    }
+
+    /**
+     * @param precision log2 of the number of registers of each sketch, see {@link HyperLogLog#HyperLogLog(int)}
+     * @param window    how long distinct actors are counted before the gauges are updated
+     * @param unit      the unit of the window
+     */
+    public CardinalityTracker(final MetricRegistry metricRegistry, final int precision, final long window, final TimeUnit unit)
+    {
+        this.metricRegistry = metricRegistry;
+        this.precision = HyperLogLog.checkPrecision(precision);
+        MetricsScheduler.scheduleAtFixedRate(this, CardinalityTracker::rollWindow, window, unit);
+    }
+
+    /**
+     * Called for each invocation read by the actor extension.
+     */
+    void actorMessaged(final Class<?> actorClass, final RemoteReference<?> toReference)
+    {
+        if (actorClass != null)
+        {
+            actorTypeCardinality.get(actorClass).actors.add(HyperLogLog.hash(RemoteReference.getId(toReference)));
+        }
+    }
+
+    /**
+     * Called for each invocation sent by an actor of this node.
+     */
+    void actorCalled(final Class<?> actorClass, final AbstractActor<?> caller)
+    {
+        final Class<?> callerClass = RemoteReference.getInterfaceClass(caller);
+        if (actorClass != null && callerClass != null)
+        {
+            final long callerHash = HyperLogLog.hash(interfaceHashes.get(callerClass), HyperLogLog.hash(RemoteReference.getId(caller)));
+            actorTypeCardinality.get(actorClass).callers.add(callerHash);
+        }
+    }
+
+    /**
+     * Publishes the sketches of the current window and starts a new one.
+     */
+    void rollWindow()
+    {
+        for (final ActorTypeCardinality cardinality : actorTypes)
+        {
+            cardinality.rollWindow();
+        }
+    }
+
+    /**
+     * A copy of the sketch of the distinct actors of the type that received messages in the last complete window.
+     */
+    public HyperLogLog getDistinctActors(final Class<?> actorClass)
+    {
+        return HyperLogLog.fromByteArray(actorTypeCardinality.get(actorClass).lastActors.toByteArray());
+    }
+
+    /**
+     * A copy of the sketch of the distinct actors that called the type in the last complete window.
+     */
+    public HyperLogLog getDistinctCallers(final Class<?> actorClass)
+    {
+        return HyperLogLog.fromByteArray(actorTypeCardinality.get(actorClass).lastCallers.toByteArray());
+    }
+
+    public static String getDistinctActorsMetricsKey(final Class<?> actorClass)
+    {
+        return MetricName.of("orbit.actors.distinct_actors", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    public static String getDistinctCallersMetricsKey(final Class<?> actorClass)
+    {
+        return MetricName.of("orbit.actors.distinct_callers", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * The sketches of one actor type: the current window being filled and the last complete one.
+     */
+    private final class ActorTypeCardinality
+    {
+        private volatile HyperLogLog actors = new HyperLogLog(precision);
+        private volatile HyperLogLog callers = new HyperLogLog(precision);
+        private volatile HyperLogLog lastActors = new HyperLogLog(precision);
+        private volatile HyperLogLog lastCallers = new HyperLogLog(precision);
+        private volatile long lastActorsEstimate;
+        private volatile long lastCallersEstimate;
+
+        ActorTypeCardinality(final Class<?> actorClass)
+        {
+            metricRegistry.gauge(getDistinctActorsMetricsKey(actorClass), () -> (Gauge<Long>) () -> lastActorsEstimate);
+            metricRegistry.gauge(getDistinctCallersMetricsKey(actorClass), () -> (Gauge<Long>) () -> lastCallersEstimate);
+        }
+
+        void rollWindow()
+        {
+            final HyperLogLog completeActors = actors;
+            final HyperLogLog completeCallers = callers;
+            actors = new HyperLogLog(precision);
+            callers = new HyperLogLog(precision);
+            lastActors = completeActors;
+            lastCallers = completeCallers;
+            lastActorsEstimate = completeActors.estimate();
+            lastCallersEstimate = completeCallers.estimate();
+        }
+    }
+}
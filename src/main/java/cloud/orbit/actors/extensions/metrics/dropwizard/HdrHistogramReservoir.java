@@ -0,0 +1,102 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}.
+ * <p>
+ * Updates are wait free, so execution threads recording into the same timer never serialize on a lock,
+ * and every value is kept at the configured precision, which preserves the tail percentiles that a
+ * sampling reservoir loses. Values recorded since the last reset are reported; the reservoir starts over
+ * once the reset interval has elapsed.
+ */
+public class HdrHistogramReservoir implements Reservoir
+{
+    private final Recorder recorder;
+    private final Histogram accumulatedHistogram;
+    private final long resetIntervalNanos;
+    private Histogram intervalHistogram;
+    private long lastResetNanos;
+
+    /**
+     * @param numberOfSignificantValueDigits precision of the recorded values, between 0 and 5
+     * @param resetInterval                  how long values are kept before the reservoir starts over,
+     *                                       or 0 to keep every value since creation
+     * @param unit                           the unit of the reset interval
+     */
+    public HdrHistogramReservoir(final int numberOfSignificantValueDigits, final long resetInterval, final TimeUnit unit)
+    {
+        this.recorder = new Recorder(numberOfSignificantValueDigits);
+        this.accumulatedHistogram = new Histogram(numberOfSignificantValueDigits);
+        this.resetIntervalNanos = unit.toNanos(resetInterval);
+        this.lastResetNanos = System.nanoTime();
+    }
+
+    @Override
+    public int size()
+    {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public void update(final long value)
+    {
+        recorder.recordValue(value < 0 ? 0 : value);
+    }
+
+    @Override
+    public Snapshot getSnapshot()
+    {
+        return new HdrHistogramSnapshot(getHistogram());
+    }
+
+    /**
+     * Returns a copy of the values currently held by the reservoir.
+     */
+    public synchronized Histogram getHistogram()
+    {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        final long now = System.nanoTime();
+        if (resetIntervalNanos > 0 && now - lastResetNanos >= resetIntervalNanos)
+        {
+            accumulatedHistogram.reset();
+            lastResetNanos = now;
+        }
+        accumulatedHistogram.add(intervalHistogram);
+        return accumulatedHistogram.copy();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Snapshot} of an HdrHistogram.
+ * <p>
+ * {@link #getValues()} returns one value per distinct recorded bucket rather than every recorded value,
+ * since the histogram does not keep individual values.
+ */
+public class HdrHistogramSnapshot extends Snapshot
+{
+    private final Histogram histogram;
+
+    public HdrHistogramSnapshot(final Histogram histogram)
+    {
+        this.histogram = histogram;
+    }
+
+    public Histogram getHistogram()
+    {
+        return histogram;
+    }
+
+    @Override
+    public double getValue(final double quantile)
+    {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile))
+        {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        return histogram.getValueAtPercentile(quantile * 100.0);
+    }
+
+    @Override
+    public long[] getValues()
+    {
+        final long[] values = new long[countDistinctValues()];
+        int i = 0;
+        for (final HistogramIterationValue value : histogram.recordedValues())
+        {
+            values[i++] = value.getValueIteratedTo();
+        }
+        return values;
+    }
+
+    @Override
+    public int size()
+    {
+        return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax()
+    {
+        return histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean()
+    {
+        return histogram.getMean();
+    }
+
+    @Override
+    public long getMin()
+    {
+        return histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev()
+    {
+        return histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(final OutputStream output)
+    {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)))
+        {
+            for (final HistogramIterationValue value : histogram.recordedValues())
+            {
+                out.printf("%d%n", value.getValueIteratedTo());
+            }
+        }
+    }
+
+    private int countDistinctValues()
+    {
+        int count = 0;
+        for (final HistogramIterationValue ignored : histogram.recordedValues())
+        {
+            count++;
+        }
+        return count;
+    }
+}
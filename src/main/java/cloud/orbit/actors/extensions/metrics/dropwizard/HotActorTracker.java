@@ -0,0 +1,237 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the hottest actors of each type: the top K actor ids by messages received and by execution time.
+ * <p>
+ * Each actor type keeps {@link SpaceSavingSketch Space-Saving} sketches, striped by actor id, so the memory used is
+ * bounded whatever the number of actors. With {@link RecordingBuffers} set on the extension and the handler, the
+ * actor ids are written to the per thread buffers and the sketches are only updated by the drainer, so the message
+ * path takes no lock. At the end of each window the sketches are merged, the top K published to
+ * the gauges and the sketches cleared. The gauges report the last complete window as a map from actor id to
+ * message count or execution time in milliseconds, ordered from the hottest actor.
+ * <p>
+ * The same instance must be given to the actor extension, which counts the messages, and to the invocation
+ * handler, which measures the execution time:
+ * <pre>
+ * HotActorTracker hotActorTracker = new HotActorTracker(metricRegistry, 10, 1, TimeUnit.MINUTES);
+ * actorExtension.setHotActorTracker(hotActorTracker);
+ * invocationHandler.setHotActorTracker(hotActorTracker);
+ * </pre>
+ */
+public class HotActorTracker
+{
+    private static final int STRIPES = 4;
+    private static final int COUNTERS_PER_TOP_ACTOR = 4;
+
+    private final MetricRegistry metricRegistry;
+    private final int topActors;
+    private final int stripeCapacity;
+    private final Queue<ActorTypeHotSpots> actorTypes = new ConcurrentLinkedQueue<>();
+    private final ClassValue<ActorTypeHotSpots> actorTypeHotSpots = new ClassValue<ActorTypeHotSpots>()
+    {
+        @Override
+        protected ActorTypeHotSpots computeValue(final Class<?> actorClass)
+        {
+            final ActorTypeHotSpots hotSpots = new ActorTypeHotSpots(actorClass);
+            actorTypes.add(hotSpots);
+            return hotSpots;
+        }
+    };
+
+    /**
+     * @param topActors number of actors reported per actor type
+     * @param window    how long messages and execution time are accumulated before the gauges are updated
+     * @param unit      the unit of the window
+     */
+    public HotActorTracker(final MetricRegistry metricRegistry, final int topActors, final long window, final TimeUnit unit)
+    {
+        this.metricRegistry = metricRegistry;
+        this.topActors = topActors;
+        this.stripeCapacity = Math.max(1, topActors * COUNTERS_PER_TOP_ACTOR / STRIPES);
+        MetricsScheduler.scheduleAtFixedRate(this, HotActorTracker::rollWindow, window, unit);
+    }
+
+    /**
+     * Called for each invocation read by the actor extension.
+     *
+     * @param buffers the recording buffers of the extension, or null
+     */
+    void messageReceived(final RecordingBuffers buffers, final Class<?> actorClass, final RemoteReference<?> toReference)
+    {
+        final Object actorId = toReference == null ? null : RemoteReference.getId(toReference);
+        if (actorClass != null && actorId != null)
+        {
+            RecordingBuffers.record(buffers, actorTypeHotSpots.get(actorClass).messages, actorId, 1);
+        }
+    }
+
+    /**
+     * Called for each invocation executed by the invocation handler.
+     *
+     * @param buffers the recording buffers of the handler, or null
+     */
+    void invocationExecuted(final RecordingBuffers buffers, final Class<?> actorClass, final RemoteReference<?> toReference,
+                            final long durationNanos)
+    {
+        final Object actorId = toReference == null ? null : RemoteReference.getId(toReference);
+        if (actorClass != null && actorId != null)
+        {
+            RecordingBuffers.record(buffers, actorTypeHotSpots.get(actorClass).executionTime, actorId, durationNanos);
+        }
+    }
+
+    /**
+     * Publishes the top actors of the current window and starts a new one.
+     */
+    void rollWindow()
+    {
+        for (final ActorTypeHotSpots hotSpots : actorTypes)
+        {
+            hotSpots.messages.rollWindow(1);
+            hotSpots.executionTime.rollWindow(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * The top actors by messages received in the last complete window.
+     */
+    public Map<String, Long> getTopActorsByMessages(final Class<?> actorClass)
+    {
+        return actorTypeHotSpots.get(actorClass).messages.top;
+    }
+
+    /**
+     * The top actors by execution time, in milliseconds, in the last complete window.
+     */
+    public Map<String, Long> getTopActorsByExecutionTime(final Class<?> actorClass)
+    {
+        return actorTypeHotSpots.get(actorClass).executionTime.top;
+    }
+
+    public static String getTopActorsByMessagesMetricsKey(final Class<?> actorClass)
+    {
+        return MetricName.of("orbit.actors.top_by_messages", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    public static String getTopActorsByExecutionTimeMetricsKey(final Class<?> actorClass)
+    {
+        return MetricName.of("orbit.actors.top_by_execution_time", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * The sketches of one actor type.
+     */
+    private final class ActorTypeHotSpots
+    {
+        private final StripedSketch messages = new StripedSketch();
+        private final StripedSketch executionTime = new StripedSketch();
+
+        ActorTypeHotSpots(final Class<?> actorClass)
+        {
+            metricRegistry.gauge(getTopActorsByMessagesMetricsKey(actorClass), () -> (Gauge<Map<String, Long>>) () -> messages.top);
+            metricRegistry.gauge(getTopActorsByExecutionTimeMetricsKey(actorClass), () -> (Gauge<Map<String, Long>>) () -> executionTime.top);
+        }
+    }
+
+    /**
+     * Space-Saving sketches striped by actor id, so an actor is always counted by the same stripe and the stripes
+     * can be merged by concatenation. The stripe locks are only contended when the sketches are fed without
+     * recording buffers.
+     */
+    private final class StripedSketch implements RecordingBuffers.KeyedRecorder
+    {
+        private final SpaceSavingSketch[] stripes = new SpaceSavingSketch[STRIPES];
+        private volatile Map<String, Long> top = Collections.emptyMap();
+
+        StripedSketch()
+        {
+            for (int i = 0; i < STRIPES; i++)
+            {
+                stripes[i] = new SpaceSavingSketch(stripeCapacity);
+            }
+        }
+
+        @Override
+        public void record(final Object actorId, final long weight)
+        {
+            final int hash = actorId.hashCode();
+            final SpaceSavingSketch stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+            synchronized (stripe)
+            {
+                stripe.add(actorId, weight);
+            }
+        }
+
+        void rollWindow(final long unit)
+        {
+            final List<Object> ids = new ArrayList<>();
+            final List<Long> weights = new ArrayList<>();
+            for (final SpaceSavingSketch stripe : stripes)
+            {
+                synchronized (stripe)
+                {
+                    stripe.forEach((id, weight) -> {
+                        ids.add(id);
+                        weights.add(weight);
+                    });
+                    stripe.clear();
+                }
+            }
+            final List<Integer> order = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++)
+            {
+                order.add(i);
+            }
+            order.sort((a, b) -> Long.compare(weights.get(b), weights.get(a)));
+            final Map<String, Long> newTop = new LinkedHashMap<>();
+            for (int i = 0; i < order.size() && i < topActors; i++)
+            {
+                final int index = order.get(i);
+                newTop.put(String.valueOf(ids.get(index)), weights.get(index) / unit);
+            }
+            top = Collections.unmodifiableMap(newTop);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HyperLogLog distinct count sketch.
+ * <p>
+ * The sketch keeps 2^precision one byte registers, packed eight to a word and updated lock free. With the default
+ * precision of 12 it uses 4KB and estimates cardinalities with a standard error of about 1.6%. Sketches of the same
+ * precision built on different nodes can be {@link #merge merged} to count the distinct values seen by all of them,
+ * and travel between nodes as {@link #toByteArray() byte arrays}.
+ * <p>
+ * Values must be added as 64 bit hashes computed the same way on every node, see {@link #hash(Object)}.
+ */
+public class HyperLogLog
+{
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+    private static final int REGISTERS_PER_WORD = 8;
+    private static final int REGISTER_BITS = 8;
+    private static final long REGISTER_MASK = 0xFFL;
+    private static final byte SERIAL_VERSION = 1;
+
+    private final int precision;
+    private final AtomicLongArray words;
+
+    public HyperLogLog()
+    {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision log2 of the number of registers, between 4 and 18
+     */
+    public HyperLogLog(final int precision)
+    {
+        this.precision = checkPrecision(precision);
+        this.words = new AtomicLongArray((1 << precision) / REGISTERS_PER_WORD);
+    }
+
+    static int checkPrecision(final int precision)
+    {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+        {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        return precision;
+    }
+
+    public int getPrecision()
+    {
+        return precision;
+    }
+
+    /**
+     * Adds a value, given as a well distributed 64 bit hash.
+     */
+    public void add(final long hash)
+    {
+        final int register = (int) (hash >>> (64 - precision));
+        final long rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        raise(register, rank);
+    }
+
+    /**
+     * The estimated number of distinct values added.
+     */
+    public long estimate()
+    {
+        final int registerCount = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        for (int register = 0; register < registerCount; register++)
+        {
+            final int rank = get(register);
+            sum += 1.0 / (1L << rank);
+            if (rank == 0)
+            {
+                zeros++;
+            }
+        }
+        final double estimate = alpha(registerCount) * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeros != 0)
+        {
+            // linear counting is more accurate for small cardinalities
+            return Math.round(registerCount * Math.log((double) registerCount / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Adds every value of the other sketch to this one.
+     *
+     * @throws IllegalArgumentException if the sketches do not have the same precision
+     */
+    public void merge(final HyperLogLog other)
+    {
+        if (other.precision != precision)
+        {
+            throw new IllegalArgumentException("Cannot merge sketches of precision " + precision + " and " + other.precision);
+        }
+        final int registerCount = 1 << precision;
+        for (int register = 0; register < registerCount; register++)
+        {
+            final int rank = other.get(register);
+            if (rank != 0)
+            {
+                raise(register, rank);
+            }
+        }
+    }
+
+    /**
+     * Serializes the sketch: a version byte, the precision, then one byte per register.
+     */
+    public byte[] toByteArray()
+    {
+        final int registerCount = 1 << precision;
+        final byte[] bytes = new byte[2 + registerCount];
+        bytes[0] = SERIAL_VERSION;
+        bytes[1] = (byte) precision;
+        for (int register = 0; register < registerCount; register++)
+        {
+            bytes[2 + register] = (byte) get(register);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a sketch written by {@link #toByteArray()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a serialized sketch
+     */
+    public static HyperLogLog fromByteArray(final byte[] bytes)
+    {
+        if (bytes.length < 2 || bytes[0] != SERIAL_VERSION)
+        {
+            throw new IllegalArgumentException("Not a serialized HyperLogLog sketch");
+        }
+        final HyperLogLog sketch = new HyperLogLog(bytes[1]);
+        final int registerCount = 1 << sketch.precision;
+        if (bytes.length != 2 + registerCount)
+        {
+            throw new IllegalArgumentException("Expected " + (2 + registerCount) + " bytes, got " + bytes.length);
+        }
+        for (int register = 0; register < registerCount; register++)
+        {
+            sketch.raise(register, bytes[2 + register] & REGISTER_MASK);
+        }
+        return sketch;
+    }
+
+    /**
+     * A 64 bit hash of the value that is the same on every node: strings and numbers are hashed from their
+     * content, other values from their {@link Object#hashCode()}.
+     */
+    public static long hash(final Object value)
+    {
+        if (value instanceof CharSequence)
+        {
+            final CharSequence chars = (CharSequence) value;
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < chars.length(); i++)
+            {
+                hash = (hash ^ chars.charAt(i)) * 0x100000001b3L;
+            }
+            return mix(hash);
+        }
+        if (value instanceof Number)
+        {
+            return mix(((Number) value).longValue());
+        }
+        return mix(value == null ? 0 : value.hashCode());
+    }
+
+    /**
+     * Combines two hashes into the hash of the pair.
+     */
+    public static long hash(final long first, final long second)
+    {
+        return mix(first * 0x9E3779B97F4A7C15L + second);
+    }
+
+    private static long mix(long hash)
+    {
+        // murmur3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static double alpha(final int registerCount)
+    {
+        switch (registerCount)
+        {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+
+    private int get(final int register)
+    {
+        final long word = words.get(register / REGISTERS_PER_WORD);
+        return (int) ((word >>> (register % REGISTERS_PER_WORD * REGISTER_BITS)) & REGISTER_MASK);
+    }
+
+    private void raise(final int register, final long rank)
+    {
+        final int index = register / REGISTERS_PER_WORD;
+        final int shift = register % REGISTERS_PER_WORD * REGISTER_BITS;
+        while (true)
+        {
+            final long word = words.get(index);
+            if (((word >>> shift) & REGISTER_MASK) >= rank)
+            {
+                return;
+            }
+            final long updated = (word & ~(REGISTER_MASK << shift)) | (rank << shift);
+            if (words.compareAndSet(index, word, updated))
+            {
+                return;
+            }
+        }
+    }
+}
@@ -1,20 +1,31 @@
 package cloud.orbit.actors.extensions.metrics.dropwizard;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
+import cloud.orbit.actors.cluster.NodeAddress;
 import cloud.orbit.actors.extensions.MessageSerializer;
 import cloud.orbit.actors.runtime.BasicRuntime;
+import cloud.orbit.actors.runtime.DefaultClassDictionary;
 import cloud.orbit.actors.runtime.Message;
 import cloud.orbit.actors.runtime.MessageDefinitions;
 
 public class InstrumentedMessageSerializer implements MessageSerializer {
     private final MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
     private final MessageSerializer messageSerializer;
-    private Map<Integer, Histogram> serializeMetrics = new ConcurrentHashMap<>();
+    private final SerializationMetrics[] serializeMetrics = new SerializationMetrics[MessageTypes.indexLength()];
+    private final LongKeyedCache<SerializationMetrics> actorMethodMetrics = new LongKeyedCache<>(this::createActorMethodMetrics);
+    private volatile boolean actorMethodBreakdown;
+    private volatile PeerCache<PeerBytes> peerBytes;
+    private volatile boolean messageSizeHeader;
 
     public InstrumentedMessageSerializer(MessageSerializer messageSerializer)
     {
@@ -22,8 +33,17 @@ public class InstrumentedMessageSerializer implements MessageSerializer {
     }
 
     public InstrumentedMessageSerializer(MetricRegistry metricRegistry, MessageSerializer messageSerializer)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), messageSerializer);
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the size histograms and serialization timers
+     */
+    public InstrumentedMessageSerializer(MetricRegistry metricRegistry, ReservoirFactory reservoirFactory, MessageSerializer messageSerializer)
     {
         this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
         this.messageSerializer = messageSerializer;
         setupMetrics();
     }
@@ -33,31 +53,270 @@ public class InstrumentedMessageSerializer implements MessageSerializer {
         return metricRegistry;
     }
 
+    /**
+     * Also records sizes and serialization times per actor interface and method of request and one way messages.
+     * Methods are named after the actor interface method, or by their Orbit method id when the interface or the
+     * method is not known on this node.
+     */
+    public void setActorMethodBreakdown(boolean actorMethodBreakdown)
+    {
+        this.actorMethodBreakdown = actorMethodBreakdown;
+    }
+
+    /**
+     * Bounds the actor method breakdown: at most {@code maxSeries} methods get their own metrics, the others share
+     * the {@code [actor:(overflow),method:(overflow)]} metrics, and the metrics of methods without messages for the
+     * idle timeout are removed from the registry.
+     *
+     * @param maxSeries   maximum number of actor methods measured individually
+     * @param idleTimeout how long metrics may go unused before they are removed
+     * @param unit        the unit of the idle timeout
+     */
+    public void limitMethodSeries(int maxSeries, long idleTimeout, TimeUnit unit)
+    {
+        actorMethodMetrics.limit(maxSeries, createActorMethodMetrics(ActorNames.OVERFLOW, ActorNames.OVERFLOW));
+        actorMethodMetrics.enableIdleEviction(handle -> handle.serializeTime.getCount() + handle.deserializeTime.getCount(),
+                this::removeActorMethodMetrics, idleTimeout, unit);
+    }
+
+    /**
+     * Adds the serialized size to the headers of inbound messages, under {@link SlowInvocationTracer#MESSAGE_SIZE_HEADER},
+     * so it is reported with the slow invocations. The header is only added after deserialization, it is never sent.
+     */
+    public void setMessageSizeHeader(boolean messageSizeHeader)
+    {
+        this.messageSizeHeader = messageSizeHeader;
+    }
+
+    /**
+     * Also counts the bytes sent to and received from each peer node, in
+     * {@code orbit.messaging.bytes[node:%s,direction:outbound|inbound]}. At most {@code maxPeers} nodes are tracked
+     * individually, the others share the {@code node:(other)} meters, and the meters of nodes that have not
+     * exchanged messages with this node for the idle timeout are removed from the registry. Enabling it again
+     * removes the meters of the previous breakdown.
+     */
+    public synchronized void enablePeerBreakdown(int maxPeers, long idleTimeout, TimeUnit unit)
+    {
+        PeerCache<PeerBytes> previous = peerBytes;
+        if (previous != null)
+        {
+            // released before the new cache registers meters of the same names
+            previous.close();
+        }
+        peerBytes = new PeerCache<>(node -> new PeerBytes(String.valueOf(node)), PeerBytes::remove,
+                new PeerBytes("(other)"), maxPeers, idleTimeout, unit);
+    }
+
+    private PeerBytes getPeerBytes(NodeAddress node)
+    {
+        PeerCache<PeerBytes> peers = peerBytes;
+        return peers == null ? null : peers.get(node);
+    }
+
     private void setupMetrics()
     {
-        String metricName = "orbit.messaging.size_in_bytes";
-        serializeMetrics.put((int) MessageDefinitions.ONE_WAY_MESSAGE, metricRegistry.histogram(metricName + "[type:one_way_message]"));
-        serializeMetrics.put((int) MessageDefinitions.REQUEST_MESSAGE, metricRegistry.histogram(metricName + "[type:request_message]"));
-        serializeMetrics.put((int) MessageDefinitions.RESPONSE_ERROR, metricRegistry.histogram(metricName + "[type:response_error]"));
-        serializeMetrics.put((int) MessageDefinitions.RESPONSE_OK, metricRegistry.histogram(metricName + "[type:response_ok]"));
-        serializeMetrics.put((int) MessageDefinitions.RESPONSE_PROTOCOL_ERROR, metricRegistry.histogram(metricName + "[type:response_protocol_error]"));
-    }        
+        for (int i = 0; i < MessageTypes.TYPES.length; i++)
+        {
+            String type = MessageTypes.NAMES[i];
+            serializeMetrics[MessageTypes.TYPES[i]] = new SerializationMetrics(
+                    reservoirFactory.histogram(metricRegistry, MetricName.of("orbit.messaging.size_in_bytes", "type", type, "direction", "outbound").toString()),
+                    reservoirFactory.histogram(metricRegistry, MetricName.of("orbit.messaging.size_in_bytes", "type", type, "direction", "inbound").toString()),
+                    reservoirFactory.timer(metricRegistry, MetricName.of("orbit.messaging.serialize_time", "type", type).toString()),
+                    reservoirFactory.timer(metricRegistry, MetricName.of("orbit.messaging.deserialize_time", "type", type).toString()));
+        }
+    }
+
+    private SerializationMetrics createActorMethodMetrics(long key)
+    {
+        int interfaceId = (int) (key >>> 32);
+        Class<?> actorClass = getActorClass(interfaceId);
+        return createActorMethodMetrics(getActorName(actorClass, interfaceId), getMethodName(actorClass, (int) key));
+    }
+
+    private SerializationMetrics createActorMethodMetrics(String actorName, String methodName)
+    {
+        return new SerializationMetrics(
+                reservoirFactory.histogram(metricRegistry, MetricName.of("orbit.messaging.size_in_bytes", "actor", actorName, "method", methodName, "direction", "outbound").toString()),
+                reservoirFactory.histogram(metricRegistry, MetricName.of("orbit.messaging.size_in_bytes", "actor", actorName, "method", methodName, "direction", "inbound").toString()),
+                reservoirFactory.timer(metricRegistry, MetricName.of("orbit.messaging.serialize_time", "actor", actorName, "method", methodName).toString()),
+                reservoirFactory.timer(metricRegistry, MetricName.of("orbit.messaging.deserialize_time", "actor", actorName, "method", methodName).toString()));
+    }
+
+    private void removeActorMethodMetrics(long key)
+    {
+        int interfaceId = (int) (key >>> 32);
+        Class<?> actorClass = getActorClass(interfaceId);
+        String actorName = getActorName(actorClass, interfaceId);
+        String methodName = getMethodName(actorClass, (int) key);
+        metricRegistry.remove(MetricName.of("orbit.messaging.size_in_bytes", "actor", actorName, "method", methodName, "direction", "outbound").toString());
+        metricRegistry.remove(MetricName.of("orbit.messaging.size_in_bytes", "actor", actorName, "method", methodName, "direction", "inbound").toString());
+        metricRegistry.remove(MetricName.of("orbit.messaging.serialize_time", "actor", actorName, "method", methodName).toString());
+        metricRegistry.remove(MetricName.of("orbit.messaging.deserialize_time", "actor", actorName, "method", methodName).toString());
+    }
+
+    private static Class<?> getActorClass(int interfaceId)
+    {
+        try
+        {
+            return DefaultClassDictionary.get().getClassById(interfaceId);
+        }
+        catch (RuntimeException e)
+        {
+            // not a known class id
+            return null;
+        }
+    }
+
+    private static String getActorName(Class<?> actorClass, int interfaceId)
+    {
+        return actorClass != null ? ActorNames.of(actorClass) : String.valueOf(interfaceId);
+    }
+
+    private static String getMethodName(Class<?> actorClass, int methodId)
+    {
+        if (actorClass != null)
+        {
+            for (Method method : actorClass.getMethods())
+            {
+                if (getMethodId(method) == methodId)
+                {
+                    return method.getName();
+                }
+            }
+        }
+        return String.valueOf(methodId);
+    }
+
+    /**
+     * The id Orbit's generated actor references send for a method: the hash of its name and parameter types.
+     */
+    static int getMethodId(Method method)
+    {
+        String signature = method.getName() + "(" + Stream.of(method.getParameterTypes()).map(Class::getName).collect(Collectors.joining(",")) + ")";
+        return signature.hashCode();
+    }
+
+    private SerializationMetrics getActorMethodMetrics(Message message)
+    {
+        int messageType = message.getMessageType();
+        if (!actorMethodBreakdown
+                || (messageType != MessageDefinitions.REQUEST_MESSAGE && messageType != MessageDefinitions.ONE_WAY_MESSAGE))
+        {
+            return null;
+        }
+        return actorMethodMetrics.get(LongKeyedCache.key(message.getInterfaceId(), message.getMethodId()));
+    }
 
     @Override
     public Message deserializeMessage(BasicRuntime runtime, byte[] payload) throws Exception {
-        return messageSerializer.deserializeMessage(runtime, payload);
+        long start = System.nanoTime();
+        Message message = messageSerializer.deserializeMessage(runtime, payload);
+        long durationNanos = System.nanoTime() - start;
+
+        if (message != null)
+        {
+            SerializationMetrics metrics = MessageTypes.get(serializeMetrics, message.getMessageType());
+            if (metrics != null)
+            {
+                metrics.recordInbound(payload.length, durationNanos);
+            }
+            SerializationMetrics actorMetrics = getActorMethodMetrics(message);
+            if (actorMetrics != null)
+            {
+                actorMetrics.recordInbound(payload.length, durationNanos);
+            }
+            PeerBytes peer = getPeerBytes(message.getFromNode());
+            if (peer != null)
+            {
+                peer.inbound.mark(payload.length);
+            }
+            if (messageSizeHeader)
+            {
+                message.setHeader(SlowInvocationTracer.MESSAGE_SIZE_HEADER, Integer.valueOf(payload.length));
+            }
+        }
+
+        return message;
     }
 
     @Override
     public byte[] serializeMessage(BasicRuntime runtime, Message message) throws Exception {
+        long start = System.nanoTime();
         byte[] out = messageSerializer.serializeMessage(runtime, message);
+        long durationNanos = System.nanoTime() - start;
 
-        Histogram serializeHistogram = serializeMetrics.get(message.getMessageType());
-        if (serializeHistogram != null)
+        SerializationMetrics metrics = MessageTypes.get(serializeMetrics, message.getMessageType());
+        if (metrics != null)
+        {
+            metrics.recordOutbound(out.length, durationNanos);
+        }
+        SerializationMetrics actorMetrics = getActorMethodMetrics(message);
+        if (actorMetrics != null)
+        {
+            actorMetrics.recordOutbound(out.length, durationNanos);
+        }
+        PeerBytes peer = getPeerBytes(message.getToNode());
+        if (peer != null)
         {
-            serializeHistogram.update(out.length);
+            peer.outbound.mark(out.length);
         }
 
         return out;
     }
+
+    /**
+     * Size histograms and serialization timers, for one message type or one actor method.
+     */
+    private static final class SerializationMetrics
+    {
+        private final Histogram outboundSize;
+        private final Histogram inboundSize;
+        private final Timer serializeTime;
+        private final Timer deserializeTime;
+
+        SerializationMetrics(Histogram outboundSize, Histogram inboundSize, Timer serializeTime, Timer deserializeTime)
+        {
+            this.outboundSize = outboundSize;
+            this.inboundSize = inboundSize;
+            this.serializeTime = serializeTime;
+            this.deserializeTime = deserializeTime;
+        }
+
+        void recordOutbound(int size, long durationNanos)
+        {
+            outboundSize.update(size);
+            serializeTime.update(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void recordInbound(int size, long durationNanos)
+        {
+            inboundSize.update(size);
+            deserializeTime.update(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Bytes exchanged with one peer node.
+     */
+    private final class PeerBytes
+    {
+        private final String outboundName;
+        private final String inboundName;
+        private final Meter outbound;
+        private final Meter inbound;
+
+        PeerBytes(String nodeName)
+        {
+            outboundName = MetricName.of("orbit.messaging.bytes", "node", nodeName, "direction", "outbound").toString();
+            inboundName = MetricName.of("orbit.messaging.bytes", "node", nodeName, "direction", "inbound").toString();
+            outbound = metricRegistry.meter(outboundName);
+            inbound = metricRegistry.meter(inboundName);
+        }
+
+        void remove()
+        {
+            metricRegistry.remove(outboundName);
+            metricRegistry.remove(inboundName);
+        }
+    }
 }
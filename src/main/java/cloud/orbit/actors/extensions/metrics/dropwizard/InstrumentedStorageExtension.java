@@ -0,0 +1,323 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.concurrent.Task;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Wraps a {@link StorageExtension} to time the reads, writes and clears of actor state per actor type, count their
+ * errors and the operations in progress, and optionally record the size of the states.
+ * <p>
+ * Reads are done while actors activate, so {@code orbit.storage.time[actor:%s,operation:read]} is the part of
+ * {@code orbit.actors.activation_time[actor:%s]} spent in storage, the rest being spent in the actor's own
+ * activation. Register the wrapper in place of the storage extension:
+ * <pre>
+ * builder.extensions(new InstrumentedStorageExtension(metricRegistry, new MongoDBStorageExtension(...)));
+ * </pre>
+ */
+public class InstrumentedStorageExtension implements StorageExtension
+{
+    private static final String READ = "read";
+    private static final String WRITE = "write";
+    private static final String CLEAR = "clear";
+
+    private final MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+    private final StorageExtension storageExtension;
+    private final ClassValue<StorageMetrics> storageMetrics = new ClassValue<StorageMetrics>()
+    {
+        @Override
+        protected StorageMetrics computeValue(final Class<?> actorClass)
+        {
+            return new StorageMetrics(ActorNames.of(actorClass));
+        }
+    };
+    private final StorageMetrics undefinedStorageMetrics;
+    private volatile ToIntFunction<Object> stateSize;
+
+    public InstrumentedStorageExtension(final StorageExtension storageExtension)
+    {
+        this(new MetricRegistry(), storageExtension);
+    }
+
+    public InstrumentedStorageExtension(final MetricRegistry metricRegistry, final StorageExtension storageExtension)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), storageExtension);
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the timers and size histograms
+     */
+    public InstrumentedStorageExtension(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final StorageExtension storageExtension)
+    {
+        this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        this.storageExtension = storageExtension;
+        this.undefinedStorageMetrics = new StorageMetrics("(undefined)");
+    }
+
+    public MetricRegistry getMetricRegistry()
+    {
+        return metricRegistry;
+    }
+
+    /**
+     * Records the size of the states read and written in {@code orbit.storage.state_size[actor:%s,operation:%s]}.
+     * The storage extension does not expose the bytes it stores, so the size is computed by the given function,
+     * for example from the length of the state serialized the way the storage does it.
+     *
+     * @param stateSize returns the size of a state in bytes, or a negative value if unknown; null disables the sizes
+     */
+    public void setStateSize(final ToIntFunction<Object> stateSize)
+    {
+        this.stateSize = stateSize;
+    }
+
+    @Override
+    public String getName()
+    {
+        return storageExtension.getName();
+    }
+
+    @Override
+    public Task<?> start()
+    {
+        return storageExtension.start();
+    }
+
+    @Override
+    public Task<?> stop()
+    {
+        return storageExtension.stop();
+    }
+
+    @Override
+    public Task<Void> clearState(final RemoteReference<?> reference, final Object state)
+    {
+        final StorageMetrics metrics = getStorageMetrics(reference);
+        return instrument(metrics.clear, metrics, () -> storageExtension.clearState(reference, state));
+    }
+
+    @Override
+    public Task<Boolean> readState(final RemoteReference<?> reference, final Object state)
+    {
+        final StorageMetrics metrics = getStorageMetrics(reference);
+        final Task<Boolean> task = instrument(metrics.read, metrics, () -> storageExtension.readState(reference, state));
+        final ToIntFunction<Object> size = stateSize;
+        if (size != null && task != null)
+        {
+            // the state is only filled once the read completed, and only if it was found
+            task.whenComplete((found, error) -> {
+                if (error == null && Boolean.TRUE.equals(found))
+                {
+                    recordSize(size, metrics.readSize(), state);
+                }
+            });
+        }
+        return task;
+    }
+
+    @Override
+    public Task<Void> writeState(final RemoteReference<?> reference, final Object state)
+    {
+        final StorageMetrics metrics = getStorageMetrics(reference);
+        final ToIntFunction<Object> size = stateSize;
+        if (size != null)
+        {
+            recordSize(size, metrics.writeSize(), state);
+        }
+        return instrument(metrics.write, metrics, () -> storageExtension.writeState(reference, state));
+    }
+
+    private <T> Task<T> instrument(final Operation operation, final StorageMetrics metrics, final Supplier<Task<T>> call)
+    {
+        final long start = System.nanoTime();
+        metrics.inFlight.inc();
+        final Task<T> task;
+        try
+        {
+            task = call.get();
+        }
+        catch (final RuntimeException | Error e)
+        {
+            metrics.inFlight.dec();
+            operation.errors.mark();
+            throw e;
+        }
+        if (task == null)
+        {
+            metrics.inFlight.dec();
+            operation.time.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return null;
+        }
+        task.whenComplete((result, error) -> {
+            metrics.inFlight.dec();
+            operation.time.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (error != null)
+            {
+                operation.errors.mark();
+            }
+        });
+        return task;
+    }
+
+    private static void recordSize(final ToIntFunction<Object> size, final Histogram histogram, final Object state)
+    {
+        final int bytes = size.applyAsInt(state);
+        if (bytes >= 0)
+        {
+            histogram.update(bytes);
+        }
+    }
+
+    private StorageMetrics getStorageMetrics(final RemoteReference<?> reference)
+    {
+        final Class<?> actorClass = reference == null ? null : RemoteReference.getInterfaceClass(reference);
+        return actorClass == null ? undefinedStorageMetrics : storageMetrics.get(actorClass);
+    }
+
+    public static String getStorageTimeMetricsKey(final Class<?> actorClass, final String operation)
+    {
+        return getStorageTimeMetricsKey(ActorNames.of(actorClass), operation);
+    }
+
+    public static String getStorageErrorsMetricsKey(final Class<?> actorClass, final String operation)
+    {
+        return getStorageErrorsMetricsKey(ActorNames.of(actorClass), operation);
+    }
+
+    public static String getStorageInFlightMetricsKey(final Class<?> actorClass)
+    {
+        return getStorageInFlightMetricsKey(ActorNames.of(actorClass));
+    }
+
+    public static String getStateSizeMetricsKey(final Class<?> actorClass, final String operation)
+    {
+        return getStateSizeMetricsKey(ActorNames.of(actorClass), operation);
+    }
+
+    private static String getStorageTimeMetricsKey(final String actorName, final String operation)
+    {
+        return MetricName.of("orbit.storage.time", "actor", actorName, "operation", operation).toString();
+    }
+
+    private static String getStorageErrorsMetricsKey(final String actorName, final String operation)
+    {
+        return MetricName.of("orbit.storage.errors", "actor", actorName, "operation", operation).toString();
+    }
+
+    private static String getStorageInFlightMetricsKey(final String actorName)
+    {
+        return MetricName.of("orbit.storage.in_flight", "actor", actorName).toString();
+    }
+
+    private static String getStateSizeMetricsKey(final String actorName, final String operation)
+    {
+        return MetricName.of("orbit.storage.state_size", "actor", actorName, "operation", operation).toString();
+    }
+
+    /**
+     * The timer and error meter of one storage operation of an actor type.
+     */
+    private static final class Operation
+    {
+        private final Timer time;
+        private final Meter errors;
+
+        Operation(final Timer time, final Meter errors)
+        {
+            this.time = time;
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * The storage metrics of one actor type, resolved once per type.
+     */
+    private final class StorageMetrics
+    {
+        private final Operation read;
+        private final Operation write;
+        private final Operation clear;
+        private final Counter inFlight;
+        private final String actorName;
+        private volatile Histogram readSize;
+        private volatile Histogram writeSize;
+
+        StorageMetrics(final String actorName)
+        {
+            this.actorName = actorName;
+            read = createOperation(actorName, READ);
+            write = createOperation(actorName, WRITE);
+            clear = createOperation(actorName, CLEAR);
+            inFlight = metricRegistry.counter(getStorageInFlightMetricsKey(actorName));
+        }
+
+        // the size histograms are registered on first use, as sizes are optional
+        Histogram readSize()
+        {
+            Histogram histogram = readSize;
+            if (histogram == null)
+            {
+                histogram = reservoirFactory.histogram(metricRegistry, getStateSizeMetricsKey(actorName, READ));
+                readSize = histogram;
+            }
+            return histogram;
+        }
+
+        Histogram writeSize()
+        {
+            Histogram histogram = writeSize;
+            if (histogram == null)
+            {
+                histogram = reservoirFactory.histogram(metricRegistry, getStateSizeMetricsKey(actorName, WRITE));
+                writeSize = histogram;
+            }
+            return histogram;
+        }
+
+        private Operation createOperation(final String actorName, final String operation)
+        {
+            return new Operation(reservoirFactory.timer(metricRegistry, getStorageTimeMetricsKey(actorName, operation)),
+                    metricRegistry.meter(getStorageErrorsMetricsKey(actorName, operation)));
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.Invocation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time and bytes allocated by the synchronous part of actor invocations, per actor method.
+ * <p>
+ * The invocation handler reads the CPU time and allocated bytes of the executing thread from the
+ * {@link ThreadMXBean} before and after the actor method runs, and records the differences in
+ * {@code orbit.actors.cpu_time[actor:%s,method:%s]} (nanoseconds) and
+ * {@code orbit.actors.allocated_bytes[actor:%s,method:%s]}. Work done by the tasks the method returns, once they
+ * complete on other threads, is not included. Reading the thread counters costs around a microsecond, so
+ * invocations are sampled per method; the histograms are not rescaled. Allocated bytes are only recorded on JVMs
+ * exposing {@code com.sun.management.ThreadMXBean}.
+ * <pre>
+ * InvocationProfiler invocationProfiler = new InvocationProfiler(metricRegistry, SamplingStrategy.fixed(100));
+ * invocationHandler.setInvocationProfiler(invocationProfiler);
+ * </pre>
+ */
+public class InvocationProfiler
+{
+    private final MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+    private final SamplingStrategy samplingStrategy;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final boolean cpuTimeSupported;
+    private final ActorMethodCache<MethodProfile> methodProfiles;
+    private final ThreadLocal<Measurement> measurements = ThreadLocal.withInitial(Measurement::new);
+
+    public InvocationProfiler(final MetricRegistry metricRegistry, final SamplingStrategy samplingStrategy)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), samplingStrategy);
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the histograms
+     * @param samplingStrategy how invocations are sampled, with one sampler per actor method
+     */
+    public InvocationProfiler(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final SamplingStrategy samplingStrategy)
+    {
+        this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        this.samplingStrategy = samplingStrategy;
+        this.cpuTimeSupported = enableCpuTime(threadBean);
+        this.allocationBean = enableAllocatedMemory(threadBean);
+        this.methodProfiles = new ActorMethodCache<>(this::createMethodProfile);
+    }
+
+    /**
+     * Bounds the histograms: at most {@code maxSeries} (actor, method) pairs get their own histograms, the others
+     * share the {@code [actor:(overflow),method:(overflow)]} histograms, and the histograms of pairs not sampled for
+     * the idle timeout are removed from the registry. Call once.
+     */
+    public void limitMethodSeries(final int maxSeries, final long idleTimeout, final TimeUnit unit)
+    {
+        methodProfiles.limit(maxSeries, createMethodProfile(ActorNames.OVERFLOW, ActorNames.OVERFLOW));
+        methodProfiles.enableIdleEviction(profile -> profile.cpuTime.getCount() + profile.allocatedBytes.getCount(),
+                this::removeMethodProfile, idleTimeout, unit);
+    }
+
+    /**
+     * Called by the invocation handler on the executing thread, right before the actor method runs.
+     */
+    void invocationStarting(final Invocation invocation, final Class<?> actorClass, final Method method)
+    {
+        final MethodProfile profile = methodProfiles.get(actorClass, method);
+        if (profile.sampler.sample() == 0)
+        {
+            return;
+        }
+        final Measurement measurement = measurements.get();
+        final long threadId = Thread.currentThread().getId();
+        measurement.invocation = invocation;
+        measurement.profile = profile;
+        measurement.startAllocatedBytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : -1;
+        // read last, so the reading of the allocated bytes is not counted
+        measurement.startCpuTime = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Called by the invocation handler on the executing thread, right after the actor method returned.
+     */
+    void invocationExecuted(final Invocation invocation)
+    {
+        final Measurement measurement = measurements.get();
+        if (measurement.invocation != invocation)
+        {
+            return;
+        }
+        final long cpuTime = measurement.startCpuTime >= 0 ? threadBean.getCurrentThreadCpuTime() : -1;
+        final long allocatedBytes = measurement.startAllocatedBytes >= 0
+                ? allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        final MethodProfile profile = measurement.profile;
+        if (cpuTime >= 0)
+        {
+            profile.cpuTime.update(cpuTime - measurement.startCpuTime);
+        }
+        if (allocatedBytes >= 0)
+        {
+            profile.allocatedBytes.update(allocatedBytes - measurement.startAllocatedBytes);
+        }
+        measurement.invocation = null;
+        measurement.profile = null;
+    }
+
+    private MethodProfile createMethodProfile(final Class<?> actorClass, final Method method)
+    {
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        return createMethodProfile(ActorNames.of(actorClass), methodName);
+    }
+
+    private MethodProfile createMethodProfile(final String actorName, final String methodName)
+    {
+        return new MethodProfile(
+                reservoirFactory.histogram(metricRegistry, getCpuTimeMetricsKey(actorName, methodName)),
+                reservoirFactory.histogram(metricRegistry, getAllocatedBytesMetricsKey(actorName, methodName)),
+                samplingStrategy.newSampler());
+    }
+
+    private void removeMethodProfile(final Class<?> actorClass, final Method method)
+    {
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        metricRegistry.remove(getCpuTimeMetricsKey(actorClass, methodName));
+        metricRegistry.remove(getAllocatedBytesMetricsKey(actorClass, methodName));
+    }
+
+    private static boolean enableCpuTime(final ThreadMXBean threadBean)
+    {
+        try
+        {
+            if (!threadBean.isCurrentThreadCpuTimeSupported())
+            {
+                return false;
+            }
+            if (!threadBean.isThreadCpuTimeEnabled())
+            {
+                threadBean.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        }
+        catch (final UnsupportedOperationException | SecurityException e)
+        {
+            return false;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean enableAllocatedMemory(final ThreadMXBean threadBean)
+    {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+        {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        try
+        {
+            if (!allocationBean.isThreadAllocatedMemorySupported())
+            {
+                return null;
+            }
+            if (!allocationBean.isThreadAllocatedMemoryEnabled())
+            {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            }
+            return allocationBean;
+        }
+        catch (final UnsupportedOperationException | SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    public static String getCpuTimeMetricsKey(final Class<?> actorClass, final String methodName)
+    {
+        return getCpuTimeMetricsKey(ActorNames.of(actorClass), methodName);
+    }
+
+    public static String getAllocatedBytesMetricsKey(final Class<?> actorClass, final String methodName)
+    {
+        return getAllocatedBytesMetricsKey(ActorNames.of(actorClass), methodName);
+    }
+
+    private static String getCpuTimeMetricsKey(final String actorName, final String methodName)
+    {
+        return MetricName.of("orbit.actors.cpu_time", "actor", actorName, "method", methodName).toString();
+    }
+
+    private static String getAllocatedBytesMetricsKey(final String actorName, final String methodName)
+    {
+        return MetricName.of("orbit.actors.allocated_bytes", "actor", actorName, "method", methodName).toString();
+    }
+
+    /**
+     * The histograms of one actor method, resolved once and reused for every sampled invocation.
+     */
+    private static final class MethodProfile
+    {
+        private final Histogram cpuTime;
+        private final Histogram allocatedBytes;
+        private final Sampler sampler;
+
+        MethodProfile(final Histogram cpuTime, final Histogram allocatedBytes, final Sampler sampler)
+        {
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+            this.sampler = sampler;
+        }
+    }
+
+    /**
+     * The thread counters read before the sampled invocation running on the thread, reused across invocations.
+     */
+    private static final class Measurement
+    {
+        private Invocation invocation;
+        private MethodProfile profile;
+        private long startCpuTime;
+        private long startAllocatedBytes;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches metric handles by a primitive {@code long} key.
+ * <p>
+ * Reads probe an immutable open addressing table through a single volatile read, so a lookup neither boxes the
+ * key nor takes a lock. Inserts copy the table under a lock, which suits key sets that are small and stop growing
+ * once the application has warmed up.
+ * <p>
+ * As in {@link ActorMethodCache}, the number of handles can be {@link #limit limited}, keys seen once the limit is
+ * reached sharing an overflow handle, and idle handles can be {@link #enableIdleEviction evicted}. Handles are
+ * created and evicted under the same lock, so a handle is never created from metrics that are being released.
+ */
+final class LongKeyedCache<H>
+{
+    private final LongFunction<H> factory;
+    private volatile Table<H> table = new Table<>(16);
+    private int handleCount;
+    private int maxHandles = Integer.MAX_VALUE;
+    private H overflowHandle;
+    // only accessed by the eviction sweep: key to { last activity, last active time }
+    private final Map<Long, long[]> lastActivities = new HashMap<>();
+    // the eviction settings are held here rather than by the sweep task, which only holds the cache weakly
+    private ToLongFunction<H> activity;
+    private LongConsumer release;
+    private long idleNanos;
+    private ScheduledFuture<?> sweep;
+
+    LongKeyedCache(final LongFunction<H> factory)
+    {
+        this.factory = factory;
+    }
+
+    H get(final long key)
+    {
+        final H handle = table.get(key);
+        return handle != null ? handle : create(key);
+    }
+
+    private synchronized H create(final long key)
+    {
+        Table<H> current = table;
+        H handle = current.get(key);
+        if (handle == null)
+        {
+            if (overflowHandle != null && handleCount >= maxHandles)
+            {
+                handle = overflowHandle;
+            }
+            else
+            {
+                handle = factory.apply(key);
+                handleCount++;
+            }
+            table = current.with(key, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Limits the number of handles; the keys seen once the limit is reached share the overflow handle until idle
+     * handles are evicted.
+     */
+    synchronized void limit(final int maxHandles, final H overflowHandle)
+    {
+        final H previous = this.overflowHandle;
+        if (previous != null && previous != overflowHandle)
+        {
+            // the keys sharing the previous overflow handle are resolved again
+            final Table<H> current = table;
+            final boolean[] removed = new boolean[current.keys.length];
+            for (int i = 0; i < removed.length; i++)
+            {
+                removed[i] = current.handles[i] == previous;
+            }
+            table = current.without(removed);
+        }
+        this.overflowHandle = overflowHandle;
+        this.maxHandles = maxHandles;
+    }
+
+    /**
+     * Evicts the handles whose activity has not changed for the idle timeout, at a fraction of the timeout, for as
+     * long as the cache is reachable. Enabling it again replaces the previous idle timeout.
+     *
+     * @param activity returns a value that changes whenever the handle is used, such as its count
+     * @param release  releases the metrics of an evicted handle, given its key
+     */
+    synchronized void enableIdleEviction(final ToLongFunction<H> activity, final LongConsumer release, final long idleTimeout, final TimeUnit unit)
+    {
+        this.activity = activity;
+        this.release = release;
+        this.idleNanos = unit.toNanos(idleTimeout);
+        final long sweepPeriodMillis = Math.max(1, unit.toMillis(idleTimeout) / 4);
+        if (sweep != null)
+        {
+            sweep.cancel(false);
+        }
+        sweep = MetricsScheduler.scheduleAtFixedRate(this, LongKeyedCache::sweepIdle, sweepPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sweepIdle()
+    {
+        sweepIdle(activity, release, idleNanos);
+    }
+
+    /**
+     * Evicts the handles whose activity did not change for the idle duration, over successive sweeps.
+     */
+    synchronized void sweepIdle(final ToLongFunction<H> activity, final LongConsumer release, final long idleNanos)
+    {
+        final long now = System.nanoTime();
+        final Table<H> current = table;
+        final boolean[] removed = new boolean[current.keys.length];
+        boolean anyRemoved = false;
+        for (int i = 0; i < current.keys.length; i++)
+        {
+            @SuppressWarnings("unchecked")
+            final H handle = (H) current.handles[i];
+            if (handle == null)
+            {
+                continue;
+            }
+            final long key = current.keys[i];
+            if (handle == overflowHandle)
+            {
+                // retry overflowed keys, in case room was freed
+                removed[i] = true;
+                anyRemoved = true;
+                continue;
+            }
+            final long activityNow = activity.applyAsLong(handle);
+            final long[] last = lastActivities.get(key);
+            if (last == null || activityNow != last[0])
+            {
+                lastActivities.put(key, new long[] { activityNow, now });
+            }
+            else if (now - last[1] >= idleNanos)
+            {
+                release.accept(key);
+                removed[i] = true;
+                anyRemoved = true;
+                lastActivities.remove(key);
+                handleCount--;
+            }
+        }
+        if (anyRemoved)
+        {
+            table = current.without(removed);
+        }
+    }
+
+    synchronized int size()
+    {
+        return handleCount;
+    }
+
+    static long key(final int high, final int low)
+    {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private static final class Table<H>
+    {
+        private final long[] keys;
+        private final Object[] handles;
+        private final int size;
+
+        Table(final int capacity)
+        {
+            keys = new long[capacity];
+            handles = new Object[capacity];
+            size = 0;
+        }
+
+        private Table(final long[] keys, final Object[] handles, final int size)
+        {
+            this.keys = keys;
+            this.handles = handles;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        H get(final long key)
+        {
+            final int mask = keys.length - 1;
+            int slot = spread(key) & mask;
+            Object handle;
+            while ((handle = handles[slot]) != null)
+            {
+                if (keys[slot] == key)
+                {
+                    return (H) handle;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        Table<H> with(final long key, final H handle)
+        {
+            final int capacity = (size + 1) * 2 > keys.length ? keys.length * 2 : keys.length;
+            final long[] newKeys = new long[capacity];
+            final Object[] newHandles = new Object[capacity];
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (handles[i] != null)
+                {
+                    insert(newKeys, newHandles, keys[i], handles[i]);
+                }
+            }
+            insert(newKeys, newHandles, key, handle);
+            return new Table<>(newKeys, newHandles, size + 1);
+        }
+
+        /**
+         * Copies the table without the handles of the given slots.
+         */
+        Table<H> without(final boolean[] removed)
+        {
+            final long[] newKeys = new long[keys.length];
+            final Object[] newHandles = new Object[handles.length];
+            int newSize = 0;
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (handles[i] != null && !removed[i])
+                {
+                    insert(newKeys, newHandles, keys[i], handles[i]);
+                    newSize++;
+                }
+            }
+            return new Table<>(newKeys, newHandles, newSize);
+        }
+
+        private static void insert(final long[] keys, final Object[] handles, final long key, final Object handle)
+        {
+            final int mask = keys.length - 1;
+            int slot = spread(key) & mask;
+            while (handles[slot] != null)
+            {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            handles[slot] = handle;
+        }
+
+        private static int spread(final long key)
+        {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
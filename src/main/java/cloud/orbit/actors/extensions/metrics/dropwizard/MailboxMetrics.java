@@ -0,0 +1,251 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Time invocations spend queued for their actor, between {@link OrbitMetricsActorExtension#onRead} and the start
+ * of their execution reported to {@link OrbitMetricsInvocationHandler#beforeInvoke}, and the number of invocations
+ * queued per actor type. The queue depth counts the invocations read and not started yet: an invocation leaves the
+ * queue when its execution starts, so the running invocation is not counted.
+ * <p>
+ * The read timestamp is kept in a preallocated, lock free ring indexed by the identity hash of the invocation, so
+ * no map entry is allocated per message. When two queued invocations share a slot the older one is dropped from the
+ * measurement, and if they are read at the same instant one may be timed from the other's read. The ring should
+ * therefore be a few times larger than the number of invocations usually queued on the node. Invocations that never
+ * start, such as those failed before execution, expire from the ring after a timeout. Dropped and expired
+ * invocations leave the queue depth.
+ * <p>
+ * The same instance must be given to the actor extension and the invocation handler:
+ * <pre>
+ * MailboxMetrics mailboxMetrics = new MailboxMetrics(metricRegistry);
+ * actorExtension.setMailboxMetrics(mailboxMetrics);
+ * invocationHandler.setMailboxMetrics(mailboxMetrics);
+ * </pre>
+ */
+public class MailboxMetrics
+{
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long DEFAULT_EXPIRY_MINUTES = 1;
+
+    private final MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+    private final AtomicReferenceArray<Invocation> queued;
+    private final AtomicLongArray readTimestamps;
+    private final int mask;
+    private final ClassValue<ActorTypeQueue> actorTypeQueues = new ClassValue<ActorTypeQueue>()
+    {
+        @Override
+        protected ActorTypeQueue computeValue(final Class<?> actorClass)
+        {
+            return new ActorTypeQueue(actorClass);
+        }
+    };
+    private final ActorMethodCache<Timer> methodQueueWaitTimers;
+    private volatile boolean methodBreakdown;
+    private ScheduledFuture<?> expirySweep;
+
+    public MailboxMetrics(final MetricRegistry metricRegistry)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of queued invocations that can be tracked at once, rounded up to a power of two
+     */
+    public MailboxMetrics(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final int capacity)
+    {
+        this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.queued = new AtomicReferenceArray<>(size);
+        this.readTimestamps = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.methodQueueWaitTimers = new ActorMethodCache<>((actorClass, method) -> reservoirFactory.timer(metricRegistry,
+                getQueueWaitTimeMetricsKey(actorClass, method)));
+        setExpiry(DEFAULT_EXPIRY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Sets how long an invocation may stay queued before it is assumed to never start and leaves the queue depth,
+     * one minute by default. It should exceed the longest expected queue wait.
+     */
+    public synchronized void setExpiry(final long expiry, final TimeUnit unit)
+    {
+        if (expirySweep != null)
+        {
+            expirySweep.cancel(false);
+        }
+        final long expiryNanos = unit.toNanos(expiry);
+        // sweep four times per expiry, as the idle metric caches do
+        final long sweepPeriodMillis = Math.max(1, unit.toMillis(expiry) / 4);
+        expirySweep = MetricsScheduler.scheduleAtFixedRate(this, mailbox -> mailbox.expire(System.nanoTime() - expiryNanos),
+                sweepPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Also records the queue wait time per actor method.
+     */
+    public void setMethodBreakdown(final boolean methodBreakdown)
+    {
+        this.methodBreakdown = methodBreakdown;
+    }
+
+    /**
+     * Bounds the per method queue wait timers: at most {@code maxSeries} (actor, method) pairs get their own timer,
+     * the others share {@code orbit.actors.queue_wait_time[actor:(overflow),method:(overflow)]}, and the timers of
+     * pairs idle for the timeout are removed from the registry. Call once.
+     */
+    public void limitMethodSeries(final int maxSeries, final long idleTimeout, final TimeUnit unit)
+    {
+        methodQueueWaitTimers.limit(maxSeries, reservoirFactory.timer(metricRegistry, MetricName.of("orbit.actors.queue_wait_time",
+                "actor", ActorNames.OVERFLOW, "method", ActorNames.OVERFLOW).toString()));
+        methodQueueWaitTimers.enableIdleEviction(Timer::getCount,
+                (actorClass, method) -> metricRegistry.remove(getQueueWaitTimeMetricsKey(actorClass, method)), idleTimeout, unit);
+    }
+
+    /**
+     * Called when an invocation is read by the actor extension, before it is queued for execution.
+     */
+    void invocationRead(final Invocation invocation, final Class<?> actorClass)
+    {
+        if (actorClass == null)
+        {
+            return;
+        }
+        actorTypeQueues.get(actorClass).depth.inc();
+        final int slot = System.identityHashCode(invocation) & mask;
+        readTimestamps.set(slot, System.nanoTime());
+        final Invocation dropped = queued.getAndSet(slot, invocation);
+        if (dropped != null)
+        {
+            dequeued(dropped);
+        }
+    }
+
+    /**
+     * Called when the execution of an invocation starts.
+     *
+     * @param actorClass     the actor interface, as given to {@link #invocationRead}
+     * @param startTimeNanos the {@link System#nanoTime()} at which the execution started
+     * @return the nanoseconds the invocation was queued, or -1 if unknown
+     */
+    long invocationStarted(final Invocation invocation, final Class<?> actorClass, final Method method, final long startTimeNanos)
+    {
+        final int slot = System.identityHashCode(invocation) & mask;
+        if (actorClass == null || queued.get(slot) != invocation)
+        {
+            return -1;
+        }
+        final long readTimestamp = readTimestamps.get(slot);
+        if (!queued.compareAndSet(slot, invocation, null))
+        {
+            return -1;
+        }
+        final ActorTypeQueue queue = actorTypeQueues.get(actorClass);
+        queue.depth.dec();
+        final long waitNanos = Math.max(0, startTimeNanos - readTimestamp);
+        queue.queueWaitTime.update(waitNanos, TimeUnit.NANOSECONDS);
+        if (methodBreakdown)
+        {
+            methodQueueWaitTimers.get(actorClass, method).update(waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Removes the invocations read before the given time that have not started yet.
+     */
+    void expire(final long readBeforeNanos)
+    {
+        for (int slot = 0; slot <= mask; slot++)
+        {
+            final Invocation invocation = queued.get(slot);
+            // the timestamp is written before the invocation, so it is at least as recent as the invocation read
+            if (invocation != null && readTimestamps.get(slot) - readBeforeNanos < 0
+                    && queued.compareAndSet(slot, invocation, null))
+            {
+                dequeued(invocation);
+            }
+        }
+    }
+
+    private void dequeued(final Invocation invocation)
+    {
+        final RemoteReference<?> toReference = invocation.getToReference();
+        final Class<?> actorClass = toReference == null ? null : RemoteReference.getInterfaceClass(toReference);
+        if (actorClass != null)
+        {
+            actorTypeQueues.get(actorClass).depth.dec();
+        }
+    }
+
+    public static String getQueueWaitTimeMetricsKey(final Class<?> actorClass)
+    {
+        return MetricName.of("orbit.actors.queue_wait_time", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    public static String getQueueWaitTimeMetricsKey(final Class<?> actorClass, final Method method)
+    {
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        return MetricName.of("orbit.actors.queue_wait_time", "actor", ActorNames.of(actorClass), "method", methodName).toString();
+    }
+
+    public static String getQueueDepthMetricsKey(final Class<?> actorClass)
+    {
+        return MetricName.of("orbit.actors.queue_depth", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * The queue metrics of one actor type.
+     */
+    private final class ActorTypeQueue
+    {
+        private final Timer queueWaitTime;
+        private final Counter depth;
+
+        ActorTypeQueue(final Class<?> actorClass)
+        {
+            queueWaitTime = reservoirFactory.timer(metricRegistry, getQueueWaitTimeMetricsKey(actorClass));
+            depth = metricRegistry.counter(getQueueDepthMetricsKey(actorClass));
+        }
+    }
+}
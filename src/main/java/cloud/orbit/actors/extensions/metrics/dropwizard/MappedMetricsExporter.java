@@ -0,0 +1,448 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static cloud.orbit.actors.extensions.metrics.dropwizard.MappedMetricsLayout.*;
+
+/**
+ * Periodically writes the metrics of a registry into a memory mapped file with a fixed layout, so a sidecar can read
+ * them with plain memory loads instead of scraping the process over JMX or HTTP.
+ * <p>
+ * Each metric owns a fixed size slot holding its type, name and values as primitive doubles; the layout is described
+ * by {@link MappedMetricsLayout}. Slots are written under a per slot sequence lock, so readers never block the
+ * exporter and retry instead when they catch a slot being written. The export runs on the metrics maintenance
+ * thread, not on the actor execution threads. Slots of metrics removed from the registry are freed and reused.
+ * Names too long for their slot are stored whole in a name area at the end of the file, which is compacted when it
+ * fills up.
+ * <p>
+ * An existing file is never truncated: a new file is initialized next to it and renamed over it, so a sidecar still
+ * mapping the file of a previous run keeps reading that file, and sees with {@link MappedMetricsReader#isReplaced()}
+ * that it should open the new one.
+ * <p>
+ * The export is scheduled for as long as the exporter is reachable, so keep a reference to it:
+ * <pre>
+ * MappedMetricsExporter exporter = new MappedMetricsExporter(metricRegistry, new File("/dev/shm/orbit-metrics"), 4096);
+ * exporter.start(1, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class MappedMetricsExporter implements Closeable
+{
+    /**
+     * Name area bytes per slot by default, enough for most slots to hold a name of twice the inline capacity.
+     */
+    public static final int DEFAULT_NAME_AREA_BYTES_PER_SLOT = 128;
+
+    private final MetricRegistry metricRegistry;
+    private final MetricFilter filter;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final int[] freeSlots;
+    private int freeSlotCount;
+    private int usedSlots;
+    private final int nameAreaOffset;
+    private final int nameAreaSize;
+    private int nameAreaUsed;
+    // offset and length in the name area of the name of each slot, -1 if the name is held by the slot
+    private final int[] nameOffsets;
+    private final int[] nameLengths;
+    private ScheduledFuture<?> scheduledExport;
+
+    public MappedMetricsExporter(final MetricRegistry metricRegistry, final File file, final int slotCount) throws IOException
+    {
+        this(metricRegistry, MetricFilter.ALL, file, slotCount);
+    }
+
+    /**
+     * @param filter    selects the metrics to export
+     * @param file      the file to map, created or replaced by a new file
+     * @param slotCount maximum number of metrics exported
+     */
+    public MappedMetricsExporter(final MetricRegistry metricRegistry, final MetricFilter filter, final File file, final int slotCount) throws IOException
+    {
+        this(metricRegistry, filter, file, slotCount, slotCount * DEFAULT_NAME_AREA_BYTES_PER_SLOT);
+    }
+
+    /**
+     * @param filter       selects the metrics to export
+     * @param file         the file to map, created or replaced by a new file
+     * @param slotCount    maximum number of metrics exported
+     * @param nameAreaSize bytes available to the names longer than {@link MappedMetricsLayout#NAME_CAPACITY}
+     */
+    public MappedMetricsExporter(final MetricRegistry metricRegistry, final MetricFilter filter, final File file, final int slotCount, final int nameAreaSize) throws IOException
+    {
+        this.metricRegistry = metricRegistry;
+        this.filter = filter;
+        this.slotCount = slotCount;
+        this.freeSlots = new int[slotCount];
+        this.nameAreaOffset = nameAreaOffset(slotCount);
+        this.nameAreaSize = nameAreaSize;
+        this.nameOffsets = new int[slotCount];
+        this.nameLengths = new int[slotCount];
+        Arrays.fill(nameOffsets, -1);
+        final File target = file.getAbsoluteFile();
+        final File newFile = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try
+        {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(newFile, "rw"))
+            {
+                randomAccessFile.setLength(fileSize(slotCount, nameAreaSize));
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize(slotCount, nameAreaSize));
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putInt(HEADER_SLOT_COUNT, slotCount);
+            buffer.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+            buffer.putInt(HEADER_NAME_AREA_SIZE, nameAreaSize);
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            // the file of a previous run stays mapped by its readers, so it is replaced rather than truncated
+            Files.move(newFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(newFile.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Exports the metrics at a fixed rate on the metrics maintenance thread.
+     */
+    public synchronized void start(final long period, final TimeUnit unit)
+    {
+        if (scheduledExport == null)
+        {
+            scheduledExport = MetricsScheduler.scheduleAtFixedRate(this, MappedMetricsExporter::export, period, unit);
+        }
+    }
+
+    /**
+     * Stops the periodic export, after a last one.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (scheduledExport != null)
+        {
+            scheduledExport.cancel(false);
+            scheduledExport = null;
+        }
+        export();
+    }
+
+    /**
+     * Writes the current value of every metric.
+     */
+    public synchronized void export()
+    {
+        final Map<String, Metric> metrics = metricRegistry.getMetrics();
+        freeRemovedSlots(metrics);
+        int droppedMetrics = 0;
+        for (final Map.Entry<String, Metric> entry : metrics.entrySet())
+        {
+            final String name = entry.getKey();
+            final Metric metric = entry.getValue();
+            final int type = typeOf(metric);
+            if (type == TYPE_FREE || !filter.matches(name, metric))
+            {
+                continue;
+            }
+            Integer slot = slots.get(name);
+            if (slot == null)
+            {
+                slot = allocateSlot();
+                if (slot < 0)
+                {
+                    droppedMetrics++;
+                    continue;
+                }
+                slots.put(name, slot);
+                writeName(slot, type, name);
+            }
+            writeValues(slot, metric);
+        }
+        buffer.putInt(HEADER_USED_SLOTS, usedSlots);
+        buffer.putInt(HEADER_DROPPED_METRICS, droppedMetrics);
+        buffer.putLong(HEADER_LAST_EXPORT_MILLIS, System.currentTimeMillis());
+    }
+
+    private int allocateSlot()
+    {
+        if (freeSlotCount > 0)
+        {
+            return freeSlots[--freeSlotCount];
+        }
+        return usedSlots < slotCount ? usedSlots++ : -1;
+    }
+
+    private void freeRemovedSlots(final Map<String, Metric> metrics)
+    {
+        final Iterator<Map.Entry<String, Integer>> iterator = slots.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            final Map.Entry<String, Integer> entry = iterator.next();
+            if (!metrics.containsKey(entry.getKey()))
+            {
+                final int slot = entry.getValue();
+                iterator.remove();
+                final int offset = beginWrite(slot);
+                buffer.putInt(offset + SLOT_TYPE, TYPE_FREE);
+                buffer.putInt(offset + SLOT_NAME_LENGTH, 0);
+                buffer.putInt(offset + SLOT_NAME_OFFSET, -1);
+                buffer.putInt(offset + SLOT_FLAGS, 0);
+                endWrite(offset);
+                // the name area space is reclaimed by the next compaction
+                nameOffsets[slot] = -1;
+                freeSlots[freeSlotCount++] = slot;
+            }
+        }
+    }
+
+    private void writeName(final int slot, final int type, final String name)
+    {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        final int nameOffset = bytes.length > NAME_CAPACITY ? allocateName(bytes.length) : -1;
+        final boolean truncated = bytes.length > NAME_CAPACITY && nameOffset < 0;
+        final int length = truncated ? truncatedLength(bytes) : bytes.length;
+        final int offset = beginWrite(slot);
+        buffer.putInt(offset + SLOT_TYPE, type);
+        buffer.putInt(offset + SLOT_NAME_LENGTH, length);
+        buffer.putInt(offset + SLOT_NAME_OFFSET, nameOffset);
+        buffer.putInt(offset + SLOT_FLAGS, truncated ? FLAG_NAME_TRUNCATED : 0);
+        final int nameStart = nameOffset < 0 ? offset + SLOT_NAME : nameAreaOffset + nameOffset;
+        for (int i = 0; i < length; i++)
+        {
+            buffer.put(nameStart + i, bytes[i]);
+        }
+        for (int field = 0; field < VALUE_COUNT; field++)
+        {
+            putValue(offset, field, 0);
+        }
+        endWrite(offset);
+        nameOffsets[slot] = nameOffset;
+        nameLengths[slot] = length;
+    }
+
+    /**
+     * Reserves room for a name in the name area, compacting it if needed.
+     *
+     * @return the offset of the name in the name area, or -1 if it does not fit
+     */
+    private int allocateName(final int length)
+    {
+        if (nameAreaUsed + length > nameAreaSize)
+        {
+            compactNames();
+            if (nameAreaUsed + length > nameAreaSize)
+            {
+                return -1;
+            }
+        }
+        final int nameOffset = nameAreaUsed;
+        nameAreaUsed += length;
+        return nameOffset;
+    }
+
+    /**
+     * Moves the names of the slots in use to the start of the name area, dropping those of freed slots. Every moved
+     * slot is locked for the whole compaction, as a name may be moved over the old place of another.
+     */
+    private void compactNames()
+    {
+        final List<Integer> named = new ArrayList<>();
+        for (int slot = 0; slot < usedSlots; slot++)
+        {
+            if (nameOffsets[slot] >= 0)
+            {
+                named.add(slot);
+            }
+        }
+        named.sort((a, b) -> Integer.compare(nameOffsets[a], nameOffsets[b]));
+        for (final int slot : named)
+        {
+            beginWrite(slot);
+        }
+        int used = 0;
+        for (final int slot : named)
+        {
+            final int from = nameAreaOffset + nameOffsets[slot];
+            final int to = nameAreaOffset + used;
+            // names only move towards the start, so copying forwards never overwrites bytes still to be copied
+            for (int i = 0; i < nameLengths[slot]; i++)
+            {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+            nameOffsets[slot] = used;
+            buffer.putInt(slotOffset(slot) + SLOT_NAME_OFFSET, used);
+            used += nameLengths[slot];
+        }
+        for (final int slot : named)
+        {
+            endWrite(slotOffset(slot));
+        }
+        nameAreaUsed = used;
+    }
+
+    /**
+     * The length of the longest prefix of the name that fits in a slot without cutting a character.
+     */
+    private static int truncatedLength(final byte[] bytes)
+    {
+        int length = NAME_CAPACITY;
+        // back off over continuation bytes so the prefix ends on a character boundary
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80)
+        {
+            length--;
+        }
+        return length;
+    }
+
+    private void writeValues(final int slot, final Metric metric)
+    {
+        // gauges and snapshots are read before the slot is locked so readers retry as little as possible
+        final Snapshot snapshot = metric instanceof Timer ? ((Timer) metric).getSnapshot()
+                : metric instanceof Histogram ? ((Histogram) metric).getSnapshot() : null;
+        double count = 0;
+        if (metric instanceof Counter)
+        {
+            count = ((Counter) metric).getCount();
+        }
+        else if (metric instanceof Gauge)
+        {
+            final Object value = ((Gauge<?>) metric).getValue();
+            count = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+        else if (metric instanceof Histogram)
+        {
+            count = ((Histogram) metric).getCount();
+        }
+        final int offset = beginWrite(slot);
+        putValue(offset, FIELD_COUNT, count);
+        if (metric instanceof Metered)
+        {
+            final Metered metered = (Metered) metric;
+            putValue(offset, FIELD_COUNT, metered.getCount());
+            putValue(offset, FIELD_M1_RATE, metered.getOneMinuteRate());
+            putValue(offset, FIELD_M5_RATE, metered.getFiveMinuteRate());
+            putValue(offset, FIELD_M15_RATE, metered.getFifteenMinuteRate());
+            putValue(offset, FIELD_MEAN_RATE, metered.getMeanRate());
+        }
+        if (snapshot != null)
+        {
+            putValue(offset, FIELD_MIN, snapshot.getMin());
+            putValue(offset, FIELD_MAX, snapshot.getMax());
+            putValue(offset, FIELD_MEAN, snapshot.getMean());
+            putValue(offset, FIELD_STDDEV, snapshot.getStdDev());
+            putValue(offset, FIELD_P50, snapshot.getMedian());
+            putValue(offset, FIELD_P75, snapshot.get75thPercentile());
+            putValue(offset, FIELD_P95, snapshot.get95thPercentile());
+            putValue(offset, FIELD_P98, snapshot.get98thPercentile());
+            putValue(offset, FIELD_P99, snapshot.get99thPercentile());
+            putValue(offset, FIELD_P999, snapshot.get999thPercentile());
+        }
+        endWrite(offset);
+    }
+
+    private int beginWrite(final int slot)
+    {
+        final int offset = slotOffset(slot);
+        buffer.putLong(offset + SLOT_SEQUENCE, buffer.getLong(offset + SLOT_SEQUENCE) + 1);
+        // keeps the slot writes from being reordered before the odd sequence
+        VarHandle.releaseFence();
+        return offset;
+    }
+
+    private void endWrite(final int offset)
+    {
+        // keeps the slot writes from being reordered after the even sequence
+        VarHandle.releaseFence();
+        buffer.putLong(offset + SLOT_SEQUENCE, buffer.getLong(offset + SLOT_SEQUENCE) + 1);
+    }
+
+    private void putValue(final int offset, final int field, final double value)
+    {
+        buffer.putDouble(offset + SLOT_VALUES + field * 8, value);
+    }
+
+    private static int typeOf(final Metric metric)
+    {
+        if (metric instanceof Counter)
+        {
+            return TYPE_COUNTER;
+        }
+        if (metric instanceof Gauge)
+        {
+            return TYPE_GAUGE;
+        }
+        if (metric instanceof Timer)
+        {
+            return TYPE_TIMER;
+        }
+        if (metric instanceof Meter)
+        {
+            return TYPE_METER;
+        }
+        if (metric instanceof Histogram)
+        {
+            return TYPE_HISTOGRAM;
+        }
+        return TYPE_FREE;
+    }
+}
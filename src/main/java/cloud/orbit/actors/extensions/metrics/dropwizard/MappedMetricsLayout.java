@@ -0,0 +1,132 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+/**
+ * Layout of the file written by {@link MappedMetricsExporter} and read by {@link MappedMetricsReader}.
+ * <p>
+ * All values are little endian. The file starts with a 64 byte header:
+ * <pre>
+ *  0  int    magic, 0x4F52424D ("ORBM")
+ *  4  int    layout version, 2
+ *  8  int    number of slots
+ * 12  int    slot size in bytes, 256
+ * 16  int    number of slots in use (high water mark)
+ * 20  int    number of metrics left out of the last export because every slot was in use
+ * 24  long   time of the last export, in milliseconds since the epoch
+ * 32  int    size of the name area in bytes
+ * </pre>
+ * followed by the slots, one per metric:
+ * <pre>
+ *   0  long       sequence, odd while the slot is being written
+ *   8  int        metric type, 0 for a free slot
+ *  12  int        length of the name in bytes
+ *  16  int        offset of the name in the name area, or -1 if the name is held by the slot
+ *  20  int        flags, {@link #FLAG_NAME_TRUNCATED} if the name was cut to fit the slot
+ *  24  byte[104]  metric name in UTF-8, if held by the slot
+ * 128  double[16] values
+ * </pre>
+ * and by the name area, holding the UTF-8 names longer than 104 bytes. A name only falls back to a truncated copy
+ * in the slot, cut on a character boundary and flagged, when the name area is full.
+ * <p>
+ * A reader reads the sequence, the slot and its name in the name area, then the sequence again, and retries if it
+ * was odd or has changed. The values are indexed by the field constants; timer durations are in nanoseconds and
+ * rates in events per second.
+ */
+public final class MappedMetricsLayout
+{
+    public static final int MAGIC = 0x4F52424D;
+    public static final int VERSION = 2;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int HEADER_MAGIC = 0;
+    public static final int HEADER_VERSION = 4;
+    public static final int HEADER_SLOT_COUNT = 8;
+    public static final int HEADER_SLOT_SIZE = 12;
+    public static final int HEADER_USED_SLOTS = 16;
+    public static final int HEADER_DROPPED_METRICS = 20;
+    public static final int HEADER_LAST_EXPORT_MILLIS = 24;
+    public static final int HEADER_NAME_AREA_SIZE = 32;
+
+    public static final int SLOT_SIZE = 256;
+    public static final int SLOT_SEQUENCE = 0;
+    public static final int SLOT_TYPE = 8;
+    public static final int SLOT_NAME_LENGTH = 12;
+    public static final int SLOT_NAME_OFFSET = 16;
+    public static final int SLOT_FLAGS = 20;
+    public static final int SLOT_NAME = 24;
+    public static final int NAME_CAPACITY = 104;
+    public static final int SLOT_VALUES = 128;
+    public static final int VALUE_COUNT = 16;
+
+    public static final int FLAG_NAME_TRUNCATED = 1;
+
+    public static final int TYPE_FREE = 0;
+    public static final int TYPE_COUNTER = 1;
+    public static final int TYPE_GAUGE = 2;
+    public static final int TYPE_METER = 3;
+    public static final int TYPE_HISTOGRAM = 4;
+    public static final int TYPE_TIMER = 5;
+
+    /** Counter, meter, histogram and timer count; gauge value. */
+    public static final int FIELD_COUNT = 0;
+    public static final int FIELD_M1_RATE = 1;
+    public static final int FIELD_M5_RATE = 2;
+    public static final int FIELD_M15_RATE = 3;
+    public static final int FIELD_MEAN_RATE = 4;
+    public static final int FIELD_MIN = 5;
+    public static final int FIELD_MAX = 6;
+    public static final int FIELD_MEAN = 7;
+    public static final int FIELD_STDDEV = 8;
+    public static final int FIELD_P50 = 9;
+    public static final int FIELD_P75 = 10;
+    public static final int FIELD_P95 = 11;
+    public static final int FIELD_P98 = 12;
+    public static final int FIELD_P99 = 13;
+    public static final int FIELD_P999 = 14;
+
+    private MappedMetricsLayout()
+    {
+    }
+
+    static int slotOffset(final int slot)
+    {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    static int nameAreaOffset(final int slotCount)
+    {
+        return HEADER_SIZE + slotCount * SLOT_SIZE;
+    }
+
+    static int fileSize(final int slotCount, final int nameAreaSize)
+    {
+        return nameAreaOffset(slotCount) + nameAreaSize;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+import static cloud.orbit.actors.extensions.metrics.dropwizard.MappedMetricsLayout.*;
+
+/**
+ * Reads the file written by a {@link MappedMetricsExporter}, typically from a sidecar process.
+ * <p>
+ * The file is mapped read only and values are read in place: reading a slot copies its values into the caller's
+ * array and allocates nothing. Each slot is read under its sequence lock, retrying while the exporter is writing it,
+ * so a read is always consistent and never stops the exporting process. The retries are bounded: a slot the exporter
+ * left locked because it stopped mid-write is reported free rather than waited on forever. Readers in other languages
+ * can follow the layout described by {@link MappedMetricsLayout}.
+ * <pre>
+ * MappedMetricsReader reader = new MappedMetricsReader(new File("/dev/shm/orbit-metrics"));
+ * int slot = reader.findSlot("orbit.messaging.round_trip_time");
+ * double[] values = new double[MappedMetricsLayout.VALUE_COUNT];
+ * if (reader.read(slot, values) == MappedMetricsLayout.TYPE_TIMER)
+ * {
+ *     double p99Nanos = values[MappedMetricsLayout.FIELD_P99];
+ * }
+ * </pre>
+ */
+public class MappedMetricsReader implements Closeable
+{
+    private static final int SPINS_BEFORE_YIELD = 64;
+    // a slot write takes microseconds, a slot still odd after this many attempts was left by an exporter that died
+    private static final int MAX_ATTEMPTS = SPINS_BEFORE_YIELD * 1024;
+
+    private final Path path;
+    private final Object fileIdentity;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int nameAreaOffset;
+    private final int nameAreaSize;
+
+    /**
+     * @throws IOException if the file cannot be mapped or was not written by an exporter
+     */
+    public MappedMetricsReader(final File file) throws IOException
+    {
+        this.path = file.toPath();
+        this.fileIdentity = fileIdentity(path);
+        this.file = new RandomAccessFile(file, "r");
+        try
+        {
+            final long length = this.file.length();
+            if (length < HEADER_SIZE)
+            {
+                throw new IOException("Not a metrics file: " + file);
+            }
+            buffer = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_VERSION) != VERSION
+                    || buffer.getInt(HEADER_SLOT_SIZE) != SLOT_SIZE)
+            {
+                throw new IOException("Not a metrics file of layout version " + VERSION + ": " + file);
+            }
+            slotCount = buffer.getInt(HEADER_SLOT_COUNT);
+            nameAreaOffset = nameAreaOffset(slotCount);
+            nameAreaSize = buffer.getInt(HEADER_NAME_AREA_SIZE);
+            if (length < fileSize(slotCount, nameAreaSize))
+            {
+                throw new IOException("Truncated metrics file: " + file);
+            }
+        }
+        catch (final IOException e)
+        {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tells whether an exporter has replaced the file since it was opened, typically after a restart of the exporting
+     * process. The reader keeps reading the previous file, which is no longer updated; open a new reader to follow
+     * the new one.
+     */
+    public boolean isReplaced() throws IOException
+    {
+        return Files.notExists(path) || !Objects.equals(fileIdentity, fileIdentity(path));
+    }
+
+    private static Object fileIdentity(final Path path) throws IOException
+    {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        // the inode where available, the creation time otherwise
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    public int getSlotCount()
+    {
+        return slotCount;
+    }
+
+    /**
+     * The number of slots that have held a metric; slots past it are free.
+     */
+    public int getUsedSlots()
+    {
+        return buffer.getInt(HEADER_USED_SLOTS);
+    }
+
+    public int getDroppedMetrics()
+    {
+        return buffer.getInt(HEADER_DROPPED_METRICS);
+    }
+
+    public long getLastExportMillis()
+    {
+        return buffer.getLong(HEADER_LAST_EXPORT_MILLIS);
+    }
+
+    /**
+     * Copies the values of the slot.
+     *
+     * @param values receives the values, at least {@link MappedMetricsLayout#VALUE_COUNT} long
+     * @return the metric type of the slot, {@link MappedMetricsLayout#TYPE_FREE} if it holds no metric or is left
+     *         locked by an exporter that stopped while writing it
+     */
+    public int read(final int slot, final double[] values)
+    {
+        final int offset = slotOffset(slot);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+        {
+            final long sequence = beginRead(offset);
+            if ((sequence & 1) == 0)
+            {
+                final int type = buffer.getInt(offset + SLOT_TYPE);
+                for (int field = 0; field < VALUE_COUNT; field++)
+                {
+                    values[field] = buffer.getDouble(offset + SLOT_VALUES + field * 8);
+                }
+                if (endRead(offset, sequence))
+                {
+                    return type;
+                }
+            }
+            backOff(attempt);
+        }
+        return TYPE_FREE;
+    }
+
+    /**
+     * The name of the metric held by the slot, or null if it is free or left locked by an exporter that stopped
+     * while writing it.
+     */
+    public String getName(final int slot)
+    {
+        final int offset = slotOffset(slot);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+        {
+            final long sequence = beginRead(offset);
+            if ((sequence & 1) == 0)
+            {
+                final int type = buffer.getInt(offset + SLOT_TYPE);
+                final int nameStart = nameStart(offset);
+                final byte[] name = nameStart < 0 ? null : new byte[buffer.getInt(offset + SLOT_NAME_LENGTH)];
+                if (name != null)
+                {
+                    for (int i = 0; i < name.length; i++)
+                    {
+                        name[i] = buffer.get(nameStart + i);
+                    }
+                }
+                if (endRead(offset, sequence))
+                {
+                    checkConsistent(slot, name != null);
+                    return type == TYPE_FREE ? null : new String(name, StandardCharsets.UTF_8);
+                }
+            }
+            backOff(attempt);
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the name of the slot was cut to fit the slot, because the name area was full. Such metrics are
+     * not found by {@link #findSlot(String)}.
+     */
+    public boolean isNameTruncated(final int slot)
+    {
+        final int offset = slotOffset(slot);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+        {
+            final long sequence = beginRead(offset);
+            if ((sequence & 1) == 0)
+            {
+                final int flags = buffer.getInt(offset + SLOT_FLAGS);
+                if (endRead(offset, sequence))
+                {
+                    return (flags & FLAG_NAME_TRUNCATED) != 0;
+                }
+            }
+            backOff(attempt);
+        }
+        return false;
+    }
+
+    /**
+     * Finds the slot of a metric. Slots only change when metrics are removed from the registry, so the result can
+     * be kept and checked with {@link #getName(int)}. Names are compared in place, without decoding them.
+     *
+     * @return the slot, or -1 if the metric is not exported
+     */
+    public int findSlot(final String name)
+    {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        final int usedSlots = Math.min(getUsedSlots(), slotCount);
+        for (int slot = 0; slot < usedSlots; slot++)
+        {
+            if (nameEquals(slot, bytes))
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(final int slot, final byte[] bytes)
+    {
+        final int offset = slotOffset(slot);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+        {
+            final long sequence = beginRead(offset);
+            if ((sequence & 1) == 0)
+            {
+                final int nameStart = nameStart(offset);
+                boolean equal = buffer.getInt(offset + SLOT_TYPE) != TYPE_FREE
+                        && (buffer.getInt(offset + SLOT_FLAGS) & FLAG_NAME_TRUNCATED) == 0
+                        && nameStart >= 0 && buffer.getInt(offset + SLOT_NAME_LENGTH) == bytes.length;
+                for (int i = 0; equal && i < bytes.length; i++)
+                {
+                    equal = buffer.get(nameStart + i) == bytes[i];
+                }
+                if (endRead(offset, sequence))
+                {
+                    checkConsistent(slot, nameStart >= 0);
+                    return equal;
+                }
+            }
+            backOff(attempt);
+        }
+        return false;
+    }
+
+    /**
+     * The position of the name of the slot in the file, or -1 if the slot's name fields are out of bounds, which
+     * only happens when they are read while being written.
+     */
+    private int nameStart(final int offset)
+    {
+        final int length = buffer.getInt(offset + SLOT_NAME_LENGTH);
+        final int nameOffset = buffer.getInt(offset + SLOT_NAME_OFFSET);
+        if (nameOffset < 0)
+        {
+            return length >= 0 && length <= NAME_CAPACITY ? offset + SLOT_NAME : -1;
+        }
+        return length >= 0 && nameOffset <= nameAreaSize - length ? nameAreaOffset + nameOffset : -1;
+    }
+
+    private static void checkConsistent(final int slot, final boolean valid)
+    {
+        if (!valid)
+        {
+            throw new IllegalStateException("Corrupted metrics file, slot " + slot + " has an invalid name");
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    private long beginRead(final int offset)
+    {
+        final long sequence = buffer.getLong(offset + SLOT_SEQUENCE);
+        // keeps the slot reads from being reordered before the sequence
+        VarHandle.acquireFence();
+        return sequence;
+    }
+
+    private boolean endRead(final int offset, final long sequence)
+    {
+        // keeps the slot reads from being reordered after the sequence
+        VarHandle.acquireFence();
+        return buffer.getLong(offset + SLOT_SEQUENCE) == sequence;
+    }
+
+    private static void backOff(final int attempt)
+    {
+        if (attempt % SPINS_BEFORE_YIELD == 0)
+        {
+            Thread.yield();
+        }
+    }
+}
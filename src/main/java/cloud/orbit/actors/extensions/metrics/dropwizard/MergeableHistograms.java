@@ -0,0 +1,273 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * A {@link ReservoirFactory} that keeps a mergeable HdrHistogram alongside every timer and histogram it creates.
+ * <p>
+ * The timers keep the reservoirs of the delegate factory and report the node's own percentiles as before. Every
+ * value is also recorded, wait free, into a histogram named after the metric. {@link #snapshot()} returns the values
+ * recorded since the previous snapshot as compact binary histograms, which a collector can {@link #merge merge}
+ * across nodes to compute true cluster wide percentiles, for example of the method response times or the message
+ * latencies:
+ * <pre>
+ * MergeableHistograms histograms = new MergeableHistograms(ReservoirFactory.exponentiallyDecaying(), 2);
+ * OrbitMetricsInvocationHandler invocationHandler = new OrbitMetricsInvocationHandler(metricRegistry, histograms);
+ * ...
+ * Map&lt;String, byte[]&gt; nodeSnapshot = histograms.snapshot();
+ * ...
+ * Histogram cluster = MergeableHistograms.merge(snapshotsOfEveryNode);
+ * long p99 = cluster.getValueAtPercentile(99);
+ * </pre>
+ * Timer values are recorded in nanoseconds. Timers that are sampled only record the sampled values, which leaves
+ * their percentiles unbiased as long as the nodes use the same sampling. The histogram of a metric is dropped when
+ * the metric is removed from its registry, for example when an idle actor method series is evicted.
+ */
+public class MergeableHistograms implements ReservoirFactory
+{
+    private final ReservoirFactory delegate;
+    private final int numberOfSignificantValueDigits;
+    private final ConcurrentMap<String, IntervalRecorder> recorders = new ConcurrentHashMap<>();
+    private final Set<MetricRegistry> listenedRegistries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param delegate                       creates the reservoirs reporting the node's own percentiles
+     * @param numberOfSignificantValueDigits precision of the mergeable histograms, between 0 and 5
+     */
+    public MergeableHistograms(final ReservoirFactory delegate, final int numberOfSignificantValueDigits)
+    {
+        this.delegate = delegate;
+        this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+    }
+
+    @Override
+    public Reservoir newReservoir()
+    {
+        return delegate.newReservoir();
+    }
+
+    @Override
+    public Timer timer(final MetricRegistry metricRegistry, final String name)
+    {
+        listenRemovals(metricRegistry);
+        return metricRegistry.timer(name, () -> new Timer(newReservoir(name)));
+    }
+
+    @Override
+    public Timer scaledTimer(final MetricRegistry metricRegistry, final String name)
+    {
+        listenRemovals(metricRegistry);
+        return metricRegistry.timer(name, () -> new ScaledTimer(newReservoir(name)));
+    }
+
+    @Override
+    public com.codahale.metrics.Histogram histogram(final MetricRegistry metricRegistry, final String name)
+    {
+        listenRemovals(metricRegistry);
+        return metricRegistry.histogram(name, () -> new com.codahale.metrics.Histogram(newReservoir(name)));
+    }
+
+    private void listenRemovals(final MetricRegistry metricRegistry)
+    {
+        if (listenedRegistries.add(metricRegistry))
+        {
+            metricRegistry.addListener(new MetricRegistryListener.Base()
+            {
+                @Override
+                public void onTimerRemoved(final String name)
+                {
+                    removed(metricRegistry, name);
+                }
+
+                @Override
+                public void onHistogramRemoved(final String name)
+                {
+                    removed(metricRegistry, name);
+                }
+            });
+        }
+    }
+
+    private void removed(final MetricRegistry metricRegistry, final String name)
+    {
+        // kept if the metric was registered again in the meantime
+        recorders.computeIfPresent(name, (n, recorder) -> metricRegistry.getMetrics().containsKey(n) ? recorder : null);
+    }
+
+    private Reservoir newReservoir(final String name)
+    {
+        final IntervalRecorder recorder = recorders.computeIfAbsent(name, n -> new IntervalRecorder(numberOfSignificantValueDigits));
+        return new RecordingReservoir(delegate.newReservoir(), recorder.recorder);
+    }
+
+    /**
+     * Encodes the values recorded into each histogram since the previous snapshot, keyed by metric name.
+     * Histograms without new values are left out.
+     */
+    public synchronized Map<String, byte[]> snapshot()
+    {
+        final Map<String, byte[]> snapshot = new TreeMap<>();
+        recorders.forEach((name, recorder) -> {
+            final Histogram interval = recorder.intervalHistogram();
+            if (interval.getTotalCount() != 0)
+            {
+                snapshot.put(name, encode(interval));
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Encodes a histogram into its compressed binary form.
+     */
+    public static byte[] encode(final Histogram histogram)
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        final int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        final byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decodes a histogram written by {@link #encode(Histogram)}.
+     *
+     * @throws IllegalArgumentException if the bytes are not an encoded histogram
+     */
+    public static Histogram decode(final byte[] bytes)
+    {
+        try
+        {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), 0);
+        }
+        catch (final DataFormatException e)
+        {
+            throw new IllegalArgumentException("Not an encoded histogram", e);
+        }
+    }
+
+    /**
+     * Merges encoded histograms, for example the snapshots of one metric taken on every node.
+     */
+    public static Histogram merge(final Iterable<byte[]> encodedHistograms)
+    {
+        Histogram merged = null;
+        for (final byte[] bytes : encodedHistograms)
+        {
+            final Histogram histogram = decode(bytes);
+            if (merged == null)
+            {
+                // auto resizing, so nodes having recorded larger values can be added
+                merged = new Histogram(histogram.getNumberOfSignificantValueDigits());
+            }
+            merged.add(histogram);
+        }
+        return merged == null ? new Histogram(3) : merged;
+    }
+
+    /**
+     * Wraps a merged histogram into a Dropwizard {@link Snapshot}.
+     */
+    public static Snapshot toSnapshot(final Histogram histogram)
+    {
+        return new HdrHistogramSnapshot(histogram);
+    }
+
+    /**
+     * The recorder of one metric, with the histogram recycled between snapshots.
+     */
+    private static final class IntervalRecorder
+    {
+        private final Recorder recorder;
+        private Histogram recycled;
+
+        IntervalRecorder(final int numberOfSignificantValueDigits)
+        {
+            recorder = new Recorder(numberOfSignificantValueDigits);
+        }
+
+        synchronized Histogram intervalHistogram()
+        {
+            recycled = recorder.getIntervalHistogram(recycled);
+            return recycled;
+        }
+    }
+
+    /**
+     * Records every value into the delegate reservoir and the mergeable histogram.
+     */
+    private static final class RecordingReservoir implements Reservoir
+    {
+        private final Reservoir delegate;
+        private final Recorder recorder;
+
+        RecordingReservoir(final Reservoir delegate, final Recorder recorder)
+        {
+            this.delegate = delegate;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public int size()
+        {
+            return delegate.size();
+        }
+
+        @Override
+        public void update(final long value)
+        {
+            delegate.update(value);
+            recorder.recordValue(value < 0 ? 0 : value);
+        }
+
+        @Override
+        public Snapshot getSnapshot()
+        {
+            return delegate.getSnapshot();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+/**
+ * Microsecond clock and header encoding used by {@link LatencyMode#SKEW_CORRECTED}.
+ * <p>
+ * The clock is the wall clock at class initialization advanced by {@link System#nanoTime()}, so differences
+ * between two readings on the same node are as precise as {@code nanoTime} and unaffected by wall clock
+ * adjustments. The sample weight of a message travels in its own header, as in {@link LatencyMode#WALL_CLOCK}, so
+ * the timestamp header carries the whole microsecond timestamp.
+ */
+final class MessageTimestamps
+{
+    static final String HEADER_TIMESTAMP = "metrics-tc";
+    static final String HEADER_REQUEST_SENT = "metrics-t0";
+    static final String HEADER_REQUEST_RECEIVED = "metrics-t1";
+
+    private static final long ANCHOR_WALL_MICROS = System.currentTimeMillis() * 1000L;
+    private static final long ANCHOR_NANOS = System.nanoTime();
+
+    private MessageTimestamps()
+    {
+    }
+
+    static long nowMicros()
+    {
+        return ANCHOR_WALL_MICROS + (System.nanoTime() - ANCHOR_NANOS) / 1000L;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import cloud.orbit.actors.runtime.MessageDefinitions;
+
+/**
+ * The Orbit message types that get their own metrics, and the names used for them in metric tags.
+ */
+final class MessageTypes
+{
+    static final int[] TYPES = {
+            MessageDefinitions.ONE_WAY_MESSAGE,
+            MessageDefinitions.REQUEST_MESSAGE,
+            MessageDefinitions.RESPONSE_ERROR,
+            MessageDefinitions.RESPONSE_OK,
+            MessageDefinitions.RESPONSE_PROTOCOL_ERROR
+    };
+
+    static final String[] NAMES = {
+            "one_way_message",
+            "request_message",
+            "response_error",
+            "response_ok",
+            "response_protocol_error"
+    };
+
+    private MessageTypes()
+    {
+    }
+
+    /**
+     * Length of an array indexed by message type that can hold every type in {@link #TYPES}.
+     */
+    static int indexLength()
+    {
+        int max = 0;
+        for (final int type : TYPES)
+        {
+            max = Math.max(max, type);
+        }
+        return max + 1;
+    }
+
+    /**
+     * Returns the element of the array indexed by message type, or null for unknown types.
+     */
+    static <T> T get(final T[] byType, final int messageType)
+    {
+        return messageType >= 0 && messageType < byType.length ? byType[messageType] : null;
+    }
+}
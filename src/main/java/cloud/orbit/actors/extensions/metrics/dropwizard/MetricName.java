@@ -0,0 +1,189 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.Arrays;
+
+/**
+ * Structured identity of a metric: a name and ordered tags, such as {@code orbit.actors.count} with the tag
+ * {@code actor:Hello}.
+ * <p>
+ * {@link #toString()} renders the registry key, {@code name[key:value,key:value]}, which is what the extensions
+ * register their metrics under; they render it once, when they create a metric handle. {@link #parse(String)} turns
+ * a registry key back into its metric name, for the reporters that need the tags. Metric names are plain values:
+ * they are neither cached nor interned, so the names of removed metrics never accumulate.
+ */
+public final class MetricName
+{
+    private final String name;
+    private final String[] tags;
+    private final int hashCode;
+    private final String rendered;
+
+    private MetricName(final String name, final String[] tags)
+    {
+        this.name = name;
+        this.tags = tags;
+        this.hashCode = 31 * name.hashCode() + Arrays.hashCode(tags);
+        this.rendered = render(name, tags);
+    }
+
+    /**
+     * @param name the name, without tags
+     * @param tags tag keys and values, alternating: {@code "actor", "Hello", "method", "sayHello"}
+     */
+    public static MetricName of(final String name, final String... tags)
+    {
+        if (tags.length % 2 != 0)
+        {
+            throw new IllegalArgumentException("Tags must be key and value pairs: " + Arrays.toString(tags));
+        }
+        return new MetricName(name, tags.clone());
+    }
+
+    /**
+     * Returns the metric name of a registry key written as {@code name[key:value,key:value]}. Keys without tags, or
+     * whose tags are not {@code key:value} pairs, are names without tags.
+     */
+    public static MetricName parse(final String registryKey)
+    {
+        final int tagsStart = registryKey.indexOf('[');
+        if (tagsStart <= 0 || !registryKey.endsWith("]"))
+        {
+            return of(registryKey);
+        }
+        final String[] pairs = registryKey.substring(tagsStart + 1, registryKey.length() - 1).split(",");
+        final String[] tags = new String[pairs.length * 2];
+        for (int i = 0; i < pairs.length; i++)
+        {
+            final int separator = pairs[i].indexOf(':');
+            if (separator <= 0)
+            {
+                return of(registryKey);
+            }
+            tags[2 * i] = pairs[i].substring(0, separator);
+            tags[2 * i + 1] = pairs[i].substring(separator + 1);
+        }
+        return new MetricName(registryKey.substring(0, tagsStart), tags);
+    }
+
+    /**
+     * Returns the metric name with one more tag.
+     */
+    public MetricName withTag(final String key, final String value)
+    {
+        final String[] newTags = Arrays.copyOf(tags, tags.length + 2);
+        newTags[tags.length] = key;
+        newTags[tags.length + 1] = value;
+        return new MetricName(name, newTags);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getTagCount()
+    {
+        return tags.length / 2;
+    }
+
+    public String getTagKey(final int index)
+    {
+        return tags[2 * index];
+    }
+
+    public String getTagValue(final int index)
+    {
+        return tags[2 * index + 1];
+    }
+
+    /**
+     * @return the value of the tag, or null if the metric has no such tag
+     */
+    public String getTag(final String key)
+    {
+        for (int i = 0; i < tags.length; i += 2)
+        {
+            if (tags[i].equals(key))
+            {
+                return tags[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (this == other)
+        {
+            return true;
+        }
+        if (!(other instanceof MetricName))
+        {
+            return false;
+        }
+        final MetricName metricName = (MetricName) other;
+        return hashCode == metricName.hashCode && name.equals(metricName.name) && Arrays.equals(tags, metricName.tags);
+    }
+
+    /**
+     * The registry key: {@code name[key:value,key:value]}, or the name alone without tags.
+     */
+    @Override
+    public String toString()
+    {
+        return rendered;
+    }
+
+    private static String render(final String name, final String[] tags)
+    {
+        if (tags.length == 0)
+        {
+            return name;
+        }
+        final StringBuilder builder = new StringBuilder(name.length() + 16 * tags.length).append(name).append('[');
+        for (int i = 0; i < tags.length; i += 2)
+        {
+            if (i != 0)
+            {
+                builder.append(',');
+            }
+            builder.append(tags[i]).append(':').append(tags[i + 1]);
+        }
+        return builder.append(']').toString();
+    }
+}
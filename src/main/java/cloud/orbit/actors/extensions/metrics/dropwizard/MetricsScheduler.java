@@ -0,0 +1,84 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Daemon thread running the periodic housekeeping of the extensions: evicting idle metrics, resetting windows.
+ * <p>
+ * Tasks only hold their owner weakly and cancel themselves once it has been garbage collected, so an extension
+ * that is discarded without being stopped does not keep running tasks.
+ */
+final class MetricsScheduler
+{
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "orbit-metrics-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MetricsScheduler()
+    {
+    }
+
+    /**
+     * Runs the task on the owner at a fixed rate for as long as the owner is reachable. The task is held strongly,
+     * so it must not capture the owner or anything referencing it, such as callbacks of the owner's owner: it
+     * should read what it needs from the owner it is given.
+     *
+     * @return the scheduled task, to cancel it explicitly
+     */
+    static <T> ScheduledFuture<?> scheduleAtFixedRate(final T owner, final Consumer<T> task, final long period, final TimeUnit unit)
+    {
+        final WeakReference<T> ownerReference = new WeakReference<>(owner);
+        final ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+        synchronized (future)
+        {
+            future[0] = EXECUTOR.scheduleAtFixedRate(() -> {
+                final T current = ownerReference.get();
+                if (current == null)
+                {
+                    synchronized (future)
+                    {
+                        future[0].cancel(false);
+                    }
+                    return;
+                }
+                task.accept(current);
+            }, period, period, unit);
+        }
+        return future[0];
+    }
+}
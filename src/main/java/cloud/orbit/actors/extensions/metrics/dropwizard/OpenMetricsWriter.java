@@ -0,0 +1,684 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of a registry in the OpenMetrics text format, as scraped by Prometheus.
+ * <p>
+ * Metric names such as {@code orbit.actors.methodresponsetime[actor:Hello,method:sayHello]} become a family name
+ * and labels, {@code orbit_actors_methodresponsetime_seconds{actor="Hello",method="sayHello"}}. Names are parsed
+ * into their {@link MetricName} once, at the first scrape after the metric is added to the registry, and kept grouped
+ * by family with their labels already encoded, so later scrapes neither parse, sort nor format names: they stream
+ * the values through a reused buffer.
+ * <p>
+ * Counters and numeric gauges are written as gauges, since Dropwizard counters can decrease, meters as counters,
+ * and timers and histograms as summaries. Timer durations are written in seconds.
+ * <p>
+ * {@link #writeChanged} only writes the series whose count or value changed since the previous scrape, which keeps
+ * scrapes of nodes with thousands of idle actor methods small.
+ * <p>
+ * Metrics added to or removed from the registry are queued and applied at the start of the next scrape, so
+ * registering a metric never waits for a scrape blocked on a slow client.
+ */
+public class OpenMetricsWriter
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] EOF = bytes("# EOF\n");
+    private static final byte[] NAN = bytes("NaN");
+    private static final byte[] POSITIVE_INFINITY = bytes("+Inf");
+    private static final byte[] NEGATIVE_INFINITY = bytes("-Inf");
+    private static final byte[][] QUANTILE_LABELS = {
+            bytes("quantile=\"0.5\"} "), bytes("quantile=\"0.75\"} "), bytes("quantile=\"0.95\"} "),
+            bytes("quantile=\"0.98\"} "), bytes("quantile=\"0.99\"} "), bytes("quantile=\"0.999\"} ")
+    };
+    private static final double NANOSECONDS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 15;
+    private static final long MAX_SIGNIFICAND = 1_000_000_000_000_000L;
+
+    private final Map<String, Family> families = new TreeMap<>();
+    private final Map<String, Series> seriesByMetricName = new HashMap<>();
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+    private final byte[] digits = new byte[SIGNIFICANT_DIGITS];
+    private int position;
+    private OutputStream outputStream;
+    private WritableByteChannel channel;
+
+    public OpenMetricsWriter(final MetricRegistry metricRegistry)
+    {
+        metricRegistry.addListener(new MetricRegistryListener()
+        {
+            @Override
+            public void onGaugeAdded(final String name, final Gauge<?> gauge)
+            {
+                changes.add(new Change(name, gauge, FamilyType.GAUGE));
+            }
+
+            @Override
+            public void onGaugeRemoved(final String name)
+            {
+                changes.add(new Change(name, null, null));
+            }
+
+            @Override
+            public void onCounterAdded(final String name, final Counter counter)
+            {
+                changes.add(new Change(name, counter, FamilyType.GAUGE));
+            }
+
+            @Override
+            public void onCounterRemoved(final String name)
+            {
+                changes.add(new Change(name, null, null));
+            }
+
+            @Override
+            public void onHistogramAdded(final String name, final Histogram histogram)
+            {
+                changes.add(new Change(name, histogram, FamilyType.SUMMARY));
+            }
+
+            @Override
+            public void onHistogramRemoved(final String name)
+            {
+                changes.add(new Change(name, null, null));
+            }
+
+            @Override
+            public void onMeterAdded(final String name, final Meter meter)
+            {
+                changes.add(new Change(name, meter, FamilyType.COUNTER));
+            }
+
+            @Override
+            public void onMeterRemoved(final String name)
+            {
+                changes.add(new Change(name, null, null));
+            }
+
+            @Override
+            public void onTimerAdded(final String name, final Timer timer)
+            {
+                changes.add(new Change(name, timer, FamilyType.SUMMARY_SECONDS));
+            }
+
+            @Override
+            public void onTimerRemoved(final String name)
+            {
+                changes.add(new Change(name, null, null));
+            }
+        });
+    }
+
+    /**
+     * Writes every metric, followed by the {@code # EOF} marker.
+     */
+    public synchronized void write(final OutputStream out) throws IOException
+    {
+        outputStream = out;
+        try
+        {
+            writeFamilies(false);
+        }
+        finally
+        {
+            outputStream = null;
+        }
+    }
+
+    /**
+     * Writes every metric to the channel, followed by the {@code # EOF} marker.
+     */
+    public synchronized void write(final WritableByteChannel out) throws IOException
+    {
+        channel = out;
+        try
+        {
+            writeFamilies(false);
+        }
+        finally
+        {
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes the metrics whose count or value changed since the previous scrape, followed by the {@code # EOF}
+     * marker.
+     */
+    public synchronized void writeChanged(final OutputStream out) throws IOException
+    {
+        outputStream = out;
+        try
+        {
+            writeFamilies(true);
+        }
+        finally
+        {
+            outputStream = null;
+        }
+    }
+
+    /**
+     * Writes the metrics whose count or value changed since the previous scrape to the channel, followed by the
+     * {@code # EOF} marker.
+     */
+    public synchronized void writeChanged(final WritableByteChannel out) throws IOException
+    {
+        channel = out;
+        try
+        {
+            writeFamilies(true);
+        }
+        finally
+        {
+            channel = null;
+        }
+    }
+
+    private void applyChanges()
+    {
+        Change change;
+        while ((change = changes.poll()) != null)
+        {
+            if (change.metric != null)
+            {
+                added(change.metricName, change.metric, change.type);
+            }
+            else
+            {
+                removed(change.metricName);
+            }
+        }
+    }
+
+    private void added(final String metricName, final Metric metric, final FamilyType type)
+    {
+        final MetricName parsedName = MetricName.parse(metricName);
+        final String familyName = sanitize(parsedName.getName()) + type.suffix;
+        final Family family = families.computeIfAbsent(familyName + ' ' + type.name(), key -> new Family(familyName, type));
+        final Series series = new Series(metric, family, labels(parsedName));
+        family.series.put(metricName, series);
+        seriesByMetricName.put(metricName, series);
+    }
+
+    private void removed(final String metricName)
+    {
+        final Series series = seriesByMetricName.remove(metricName);
+        if (series != null)
+        {
+            series.family.series.remove(metricName);
+            if (series.family.series.isEmpty())
+            {
+                families.remove(series.family.name + ' ' + series.family.type.name());
+            }
+        }
+    }
+
+    private void writeFamilies(final boolean changedOnly) throws IOException
+    {
+        applyChanges();
+        position = 0;
+        for (final Family family : families.values())
+        {
+            boolean headerWritten = false;
+            for (final Series series : family.series.values())
+            {
+                if (!series.changed() && changedOnly)
+                {
+                    continue;
+                }
+                if (!headerWritten)
+                {
+                    put(family.header);
+                    headerWritten = true;
+                }
+                writeSeries(family, series);
+            }
+        }
+        put(EOF);
+        flush();
+    }
+
+    private void writeSeries(final Family family, final Series series) throws IOException
+    {
+        final Metric metric = series.metric;
+        switch (family.type)
+        {
+            case GAUGE:
+                put(family.sampleName);
+                put(series.labels);
+                put(' ');
+                putDouble(series.value);
+                put('\n');
+                break;
+            case COUNTER:
+                put(family.totalName);
+                put(series.labels);
+                put(' ');
+                putLong(series.count);
+                put('\n');
+                break;
+            default:
+                final Snapshot snapshot = metric instanceof Timer ? ((Timer) metric).getSnapshot() : ((Histogram) metric).getSnapshot();
+                final double divisor = family.type == FamilyType.SUMMARY_SECONDS ? NANOSECONDS_PER_SECOND : 1.0;
+                putQuantile(family, series, 0, snapshot.getMedian() / divisor);
+                putQuantile(family, series, 1, snapshot.get75thPercentile() / divisor);
+                putQuantile(family, series, 2, snapshot.get95thPercentile() / divisor);
+                putQuantile(family, series, 3, snapshot.get98thPercentile() / divisor);
+                putQuantile(family, series, 4, snapshot.get99thPercentile() / divisor);
+                putQuantile(family, series, 5, snapshot.get999thPercentile() / divisor);
+                put(family.countName);
+                put(series.labels);
+                put(' ');
+                putLong(series.count);
+                put('\n');
+                break;
+        }
+    }
+
+    private void putQuantile(final Family family, final Series series, final int quantile, final double value) throws IOException
+    {
+        put(family.sampleName);
+        put(series.quantileLabelsPrefix);
+        put(QUANTILE_LABELS[quantile]);
+        putDouble(value);
+        put('\n');
+    }
+
+    private void putLong(long value) throws IOException
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            put(bytes(Long.toString(value)));
+            return;
+        }
+        if (value < 0)
+        {
+            put('-');
+            value = -value;
+        }
+        if (BUFFER_SIZE - position < 20)
+        {
+            flush();
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10)
+        {
+            digits++;
+        }
+        int index = position + digits;
+        position = index;
+        do
+        {
+            buffer[--index] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+    }
+
+    private void putDouble(final double value) throws IOException
+    {
+        if (Double.isNaN(value))
+        {
+            put(NAN);
+        }
+        else if (Double.isInfinite(value))
+        {
+            put(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+        }
+        else if (value == (long) value && Math.abs(value) < 1e15)
+        {
+            putLong((long) value);
+        }
+        else if (Math.abs(value) < 1e-290)
+        {
+            // too small to scale to the significant digits with doubles, and never seen in practice
+            put(bytes(Double.toString(value)));
+        }
+        else
+        {
+            putDecimal(value);
+        }
+    }
+
+    /**
+     * Writes a finite, non integral value with {@link #SIGNIFICANT_DIGITS} significant digits, in plain notation
+     * from 1e-5 to 1e15 and in scientific notation otherwise, without allocating.
+     */
+    private void putDecimal(double value) throws IOException
+    {
+        if (BUFFER_SIZE - position < 32)
+        {
+            flush();
+        }
+        if (value < 0)
+        {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int exponent = (int) Math.floor(Math.log10(value));
+        long significand = significand(value, exponent);
+        // log10 or the rounding may be one digit off
+        if (significand >= MAX_SIGNIFICAND)
+        {
+            significand = significand(value, ++exponent);
+        }
+        else if (significand < MAX_SIGNIFICAND / 10)
+        {
+            significand = significand(value, --exponent);
+        }
+        int length = SIGNIFICANT_DIGITS;
+        while (length > 1 && significand % 10 == 0)
+        {
+            significand /= 10;
+            length--;
+        }
+        for (int i = length - 1; i >= 0; i--)
+        {
+            digits[i] = (byte) ('0' + significand % 10);
+            significand /= 10;
+        }
+
+        if (exponent >= 0 && exponent < SIGNIFICANT_DIGITS)
+        {
+            for (int i = 0; i <= exponent; i++)
+            {
+                buffer[position++] = i < length ? digits[i] : (byte) '0';
+            }
+            if (length > exponent + 1)
+            {
+                buffer[position++] = '.';
+                for (int i = exponent + 1; i < length; i++)
+                {
+                    buffer[position++] = digits[i];
+                }
+            }
+        }
+        else if (exponent < 0 && exponent >= -5)
+        {
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            for (int i = exponent + 1; i < 0; i++)
+            {
+                buffer[position++] = '0';
+            }
+            for (int i = 0; i < length; i++)
+            {
+                buffer[position++] = digits[i];
+            }
+        }
+        else
+        {
+            buffer[position++] = digits[0];
+            if (length > 1)
+            {
+                buffer[position++] = '.';
+                for (int i = 1; i < length; i++)
+                {
+                    buffer[position++] = digits[i];
+                }
+            }
+            buffer[position++] = 'e';
+            putLong(exponent);
+        }
+    }
+
+    /**
+     * The value scaled to {@link #SIGNIFICANT_DIGITS} digits, the first of which has the given decimal exponent.
+     */
+    private static long significand(final double value, final int exponent)
+    {
+        final int scale = SIGNIFICANT_DIGITS - 1 - exponent;
+        return Math.round(scale >= 0 ? value * Math.pow(10, scale) : value / Math.pow(10, -scale));
+    }
+
+    private void put(final byte[] bytes) throws IOException
+    {
+        int offset = 0;
+        while (offset < bytes.length)
+        {
+            if (position == BUFFER_SIZE)
+            {
+                flush();
+            }
+            final int length = Math.min(bytes.length - offset, BUFFER_SIZE - position);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+            offset += length;
+        }
+    }
+
+    private void put(final char c) throws IOException
+    {
+        if (position == BUFFER_SIZE)
+        {
+            flush();
+        }
+        buffer[position++] = (byte) c;
+    }
+
+    private void flush() throws IOException
+    {
+        if (outputStream != null)
+        {
+            outputStream.write(buffer, 0, position);
+        }
+        else
+        {
+            byteBuffer.clear().limit(position);
+            while (byteBuffer.hasRemaining())
+            {
+                channel.write(byteBuffer);
+            }
+        }
+        position = 0;
+    }
+
+    /**
+     * Replaces the characters not allowed in OpenMetrics names by underscores.
+     */
+    static String sanitize(final String name)
+    {
+        final StringBuilder sanitized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++)
+        {
+            final char c = name.charAt(i);
+            final boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (c >= '0' && c <= '9' && i > 0);
+            sanitized.append(allowed ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    /**
+     * Encodes the tags of a metric name as OpenMetrics labels, without the braces.
+     */
+    static String labels(final MetricName metricName)
+    {
+        final StringBuilder labels = new StringBuilder();
+        for (int tag = 0; tag < metricName.getTagCount(); tag++)
+        {
+            if (tag != 0)
+            {
+                labels.append(',');
+            }
+            labels.append(sanitize(metricName.getTagKey(tag))).append("=\"");
+            final String value = String.valueOf(metricName.getTagValue(tag));
+            for (int i = 0; i < value.length(); i++)
+            {
+                final char c = value.charAt(i);
+                if (c == '\\' || c == '"')
+                {
+                    labels.append('\\').append(c);
+                }
+                else if (c == '\n')
+                {
+                    labels.append("\\n");
+                }
+                else
+                {
+                    labels.append(c);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+
+    private static byte[] bytes(final String string)
+    {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private enum FamilyType
+    {
+        GAUGE("gauge", ""),
+        COUNTER("counter", ""),
+        SUMMARY("summary", ""),
+        SUMMARY_SECONDS("summary", "_seconds");
+
+        private final String openMetricsType;
+        private final String suffix;
+
+        FamilyType(final String openMetricsType, final String suffix)
+        {
+            this.openMetricsType = openMetricsType;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * A metric added to the registry, or removed when it has no metric, waiting for the next scrape.
+     */
+    private static final class Change
+    {
+        private final String metricName;
+        private final Metric metric;
+        private final FamilyType type;
+
+        Change(final String metricName, final Metric metric, final FamilyType type)
+        {
+            this.metricName = metricName;
+            this.metric = metric;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A metric family: the series sharing a name, with its encoded sample names.
+     */
+    private static final class Family
+    {
+        private final String name;
+        private final FamilyType type;
+        private final byte[] header;
+        private final byte[] sampleName;
+        private final byte[] totalName;
+        private final byte[] countName;
+        private final Map<String, Series> series = new TreeMap<>();
+
+        Family(final String name, final FamilyType type)
+        {
+            this.name = name;
+            this.type = type;
+            this.header = bytes("# TYPE " + name + " " + type.openMetricsType + "\n");
+            this.sampleName = bytes(name);
+            this.totalName = bytes(name + "_total");
+            this.countName = bytes(name + "_count");
+        }
+    }
+
+    /**
+     * One metric of a family, with its labels encoded and the values it had at the last scrape.
+     */
+    private static final class Series
+    {
+        private final Metric metric;
+        private final Family family;
+        private final byte[] labels;
+        private final byte[] quantileLabelsPrefix;
+        private long count = -1;
+        private double value = Double.NaN;
+
+        Series(final Metric metric, final Family family, final String encodedLabels)
+        {
+            this.metric = metric;
+            this.family = family;
+            this.labels = bytes(encodedLabels.isEmpty() ? "" : "{" + encodedLabels + "}");
+            this.quantileLabelsPrefix = bytes("{" + (encodedLabels.isEmpty() ? "" : encodedLabels + ","));
+        }
+
+        /**
+         * Reads the current count or value, and returns whether it differs from the previous read.
+         */
+        boolean changed()
+        {
+            if (metric instanceof Gauge || metric instanceof Counter)
+            {
+                final double previous = value;
+                value = metric instanceof Counter ? ((Counter) metric).getCount() : gaugeValue((Gauge<?>) metric);
+                return Double.doubleToLongBits(previous) != Double.doubleToLongBits(value);
+            }
+            final long previous = count;
+            count = metric instanceof Meter ? ((Meter) metric).getCount()
+                    : metric instanceof Timer ? ((Timer) metric).getCount() : ((Histogram) metric).getCount();
+            return previous != count;
+        }
+
+        private static double gaugeValue(final Gauge<?> gauge)
+        {
+            final Object value = gauge.getValue();
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+    }
+}
@@ -31,6 +31,9 @@ package cloud.orbit.actors.extensions.metrics.dropwizard;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 
@@ -39,14 +42,18 @@ import cloud.orbit.actors.extensions.LifetimeExtension;
 import cloud.orbit.actors.extensions.NamedPipelineExtension;
 import cloud.orbit.actors.net.HandlerContext;
 import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.actors.runtime.ActorTaskContext;
 import cloud.orbit.actors.runtime.DefaultHandlers;
 import cloud.orbit.actors.runtime.Invocation;
 import cloud.orbit.actors.runtime.RemoteReference;
 import cloud.orbit.concurrent.Task;
 
 import java.lang.reflect.Method;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A pipeline Extension to collect the actor's metrics: number of actor, actor lifetimes distribution, actor message received rate
@@ -59,11 +66,37 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
 
     public static final String ACTOR_METRICS_PIPELINE_NAME = "actor-metrics-pipeline";
 
-    private Map<String, Timer.Context> actorActivationTimers = new ConcurrentHashMap<>();
-    private Map<String, Timer.Context> actorLifetimeTimers = new ConcurrentHashMap<>();
-    private Map<String, Timer.Context> actorDeactivationTimers = new ConcurrentHashMap<>();
+    private static final long DEFAULT_LIFECYCLE_PHASE_TIMEOUT_MINUTES = 10;
+    private static final int DEFAULT_RECENT_DEACTIVATIONS = 8192;
+    private static final long DEFAULT_REACTIVATION_WINDOW_MINUTES = 10;
+    private static final long DEFAULT_THRASH_THRESHOLD_SECONDS = 60;
+
+    private volatile ActorTimestampTable actorActivationStarts;
+    private final ActorTimestampTable actorLifetimeStarts = new ActorTimestampTable(Long.MAX_VALUE);
+    private volatile ActorTimestampTable actorDeactivationStarts;
+    private volatile RecentDeactivations recentDeactivations;
+    private volatile long thrashThresholdNanos;
 
     private MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+
+    private final ActorMethodCache<Meter> messageReceiveRateMeters;
+    private final ClassValue<ActorTypeMetrics> actorTypeMetrics = new ClassValue<ActorTypeMetrics>()
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected ActorTypeMetrics computeValue(final Class<?> actorClass)
+        {
+            return new ActorTypeMetrics(metricRegistry, reservoirFactory, (Class<? extends Actor>) actorClass);
+        }
+    };
+    private final List<Class<? extends Actor>> warmUpActorInterfaces = new ArrayList<>();
+    private volatile MailboxMetrics mailboxMetrics;
+    private volatile HotActorTracker hotActorTracker;
+    private volatile CardinalityTracker cardinalityTracker;
+    private volatile RecordingBuffers recordingBuffers;
+    private volatile CallGraph callGraph;
+    private volatile CallOutcomeMetrics callOutcomeMetrics;
 
     public OrbitMetricsActorExtension()
     {
@@ -74,6 +107,11 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
     {
         this(metricRegistry, ACTOR_METRICS_PIPELINE_NAME, null, DefaultHandlers.EXECUTION);
     }
+
+    public OrbitMetricsActorExtension(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory)
+    {
+        this(metricRegistry, reservoirFactory, ACTOR_METRICS_PIPELINE_NAME, null, DefaultHandlers.EXECUTION);
+    }
     
     public OrbitMetricsActorExtension(final String name, final String beforeHandlerName, final String afterHandlerName)
     {
@@ -81,15 +119,179 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
     }
     
     public OrbitMetricsActorExtension(final MetricRegistry metricRegistry, final String name, final String beforeHandlerName, final String afterHandlerName)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), name, beforeHandlerName, afterHandlerName);
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the timers registered by this extension
+     */
+    public OrbitMetricsActorExtension(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final String name, final String beforeHandlerName, final String afterHandlerName)
     {
         super(name, beforeHandlerName, afterHandlerName);
         this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        this.messageReceiveRateMeters = new ActorMethodCache<>(this::createMessageReceiveRateMeter);
+        setLifecyclePhaseTimeout(DEFAULT_LIFECYCLE_PHASE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        setReactivationTracking(DEFAULT_RECENT_DEACTIVATIONS, TimeUnit.MINUTES.toSeconds(DEFAULT_REACTIVATION_WINDOW_MINUTES),
+                DEFAULT_THRASH_THRESHOLD_SECONDS, TimeUnit.SECONDS);
     }
     
     public MetricRegistry getMetricRegistry() {
         return metricRegistry;
     }
 
+    /**
+     * Actor interfaces whose message receive rate meters are resolved when the stage starts,
+     * so the first message to each method does not pay for the metric lookup.
+     *
+     * @param actorInterfaces the actor interfaces to warm up
+     */
+    public void setWarmUpActorInterfaces(final Collection<Class<? extends Actor>> actorInterfaces)
+    {
+        warmUpActorInterfaces.clear();
+        warmUpActorInterfaces.addAll(actorInterfaces);
+    }
+
+    @SafeVarargs
+    public final void setWarmUpActorInterfaces(final Class<? extends Actor>... actorInterfaces)
+    {
+        setWarmUpActorInterfaces(Arrays.asList(actorInterfaces));
+    }
+
+    /**
+     * Resolves the message receive rate meters for every method of the given actor interfaces.
+     *
+     * @param actorInterfaces the actor interfaces to warm up
+     */
+    public void warmUp(final Collection<Class<? extends Actor>> actorInterfaces)
+    {
+        for (final Class<? extends Actor> actorInterface : actorInterfaces)
+        {
+            messageReceiveRateMeters.warmUp(actorInterface);
+        }
+    }
+
+    /**
+     * Records the time invocations spend queued for their actor. The same {@link MailboxMetrics} must be given to
+     * {@link OrbitMetricsInvocationHandler#setMailboxMetrics}.
+     *
+     * @param mailboxMetrics the queue metrics, or null to disable them
+     */
+    public void setMailboxMetrics(final MailboxMetrics mailboxMetrics)
+    {
+        this.mailboxMetrics = mailboxMetrics;
+    }
+
+    /**
+     * Counts the messages received per actor id to find the hottest actors of each type. The same
+     * {@link HotActorTracker} should be given to {@link OrbitMetricsInvocationHandler#setHotActorTracker}.
+     *
+     * @param hotActorTracker the tracker, or null to disable it
+     */
+    public void setHotActorTracker(final HotActorTracker hotActorTracker)
+    {
+        this.hotActorTracker = hotActorTracker;
+    }
+
+    /**
+     * Estimates the number of distinct actors messaged per actor type, and of distinct callers from this node.
+     *
+     * @param cardinalityTracker the tracker, or null to disable it
+     */
+    public void setCardinalityTracker(final CardinalityTracker cardinalityTracker)
+    {
+        this.cardinalityTracker = cardinalityTracker;
+    }
+
+    /**
+     * Records the message metrics through per thread buffers applied in batches, rather than directly. The same
+     * {@link RecordingBuffers} can be shared with the messaging extension and the invocation handler.
+     *
+     * @param recordingBuffers the buffers, or null to record directly
+     */
+    public void setRecordingBuffers(final RecordingBuffers recordingBuffers)
+    {
+        this.recordingBuffers = recordingBuffers;
+    }
+
+    /**
+     * Records the calls made between actor types, from the calling side.
+     *
+     * @param callGraph the call graph, or null to disable it
+     */
+    public void setCallGraph(final CallGraph callGraph)
+    {
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * Counts and times the calls sent from this node per outcome, and the calls awaiting their response.
+     *
+     * @param callOutcomeMetrics the outcome metrics, or null to disable them
+     */
+    public void setCallOutcomeMetrics(final CallOutcomeMetrics callOutcomeMetrics)
+    {
+        this.callOutcomeMetrics = callOutcomeMetrics;
+    }
+
+    /**
+     * Bounds the message receive rate meters: at most {@code maxSeries} (actor, method) pairs get their own meter,
+     * the others share {@code orbit.actors.msg_received_rate[actor:(overflow),method:(overflow)]}, and the meters
+     * of pairs that received no message for the idle timeout are removed from the registry. Calling it again
+     * replaces the previous limit and idle timeout.
+     *
+     * @param maxSeries   maximum number of (actor, method) meters
+     * @param idleTimeout how long a meter may go unused before it is removed
+     * @param unit        the unit of the idle timeout
+     */
+    @SuppressWarnings("unchecked")
+    public void limitMethodSeries(final int maxSeries, final long idleTimeout, final TimeUnit unit)
+    {
+        messageReceiveRateMeters.limit(maxSeries, metricRegistry.meter(MetricName.of("orbit.actors.msg_received_rate",
+                "actor", ActorNames.OVERFLOW, "method", ActorNames.OVERFLOW).toString()));
+        messageReceiveRateMeters.enableIdleEviction(Meter::getCount, (actorClass, method) -> metricRegistry.remove(
+                getActorTypeMessageReceiveRateMetricsKey((Class<? extends Actor>) actorClass, method)), idleTimeout, unit);
+    }
+
+    /**
+     * How long an activation or deactivation may stay incomplete before its start timestamp is discarded.
+     * Actors whose activation or deactivation never completes are therefore not retained forever.
+     *
+     * @param timeout the maximum duration of an activation or deactivation
+     * @param unit    the unit of the timeout
+     */
+    public void setLifecyclePhaseTimeout(final long timeout, final TimeUnit unit)
+    {
+        final long timeoutNanos = unit.toNanos(timeout);
+        actorActivationStarts = new ActorTimestampTable(timeoutNanos);
+        actorDeactivationStarts = new ActorTimestampTable(timeoutNanos);
+    }
+
+    /**
+     * Sets how actors reactivated soon after their deactivation are detected. The type and id hashes of the last
+     * {@code capacity} deactivations within the window are kept in a fixed size table; when one of these actors is
+     * activated again, the time since its deactivation is recorded in {@code orbit.actors.reactivation_gap}, and
+     * counted in {@code orbit.actors.thrash} if it is within the thrash threshold.
+     *
+     * @param capacity        number of recent deactivations kept, 16 bytes each, 0 to disable the tracking
+     * @param window          how long a deactivation is remembered
+     * @param thrashThreshold reactivations within this time of the deactivation are counted as thrash
+     * @param unit            the unit of the window and of the threshold
+     */
+    public void setReactivationTracking(final int capacity, final long window, final long thrashThreshold, final TimeUnit unit)
+    {
+        thrashThresholdNanos = unit.toNanos(thrashThreshold);
+        recentDeactivations = capacity > 0 ? new RecentDeactivations(capacity, unit.toNanos(window)) : null;
+    }
+
+    @Override
+    public Task<?> start()
+    {
+        warmUp(warmUpActorInterfaces);
+        return super.start();
+    }
+
     @Override
     public void onRead(HandlerContext ctx, Object message)
     {
@@ -98,20 +300,91 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
             Invocation invocation = (Invocation) message;
             //process invocation metrics
             final RemoteReference toReference = invocation.getToReference();
-            Class toClass = RemoteReference.getInterfaceClass(toReference);
+            Class<?> toClass = RemoteReference.getInterfaceClass(toReference);
             Method method = invocation.getMethod();
-            metricRegistry.meter(getActorTypeMessageReceiveRateMetricsKey(toClass, method)).mark();
+            RecordingBuffers.mark(recordingBuffers, messageReceiveRateMeters.get(toClass, method), 1);
+            final MailboxMetrics mailbox = mailboxMetrics;
+            if (mailbox != null)
+            {
+                mailbox.invocationRead(invocation, toClass);
+            }
+            final HotActorTracker tracker = hotActorTracker;
+            if (tracker != null)
+            {
+                tracker.messageReceived(recordingBuffers, toClass, toReference);
+            }
+            final CardinalityTracker cardinality = cardinalityTracker;
+            if (cardinality != null)
+            {
+                cardinality.actorMessaged(toClass, toReference);
+            }
         }
         ctx.fireRead(message);
     }
 
+    @Override
+    public Task<?> write(final HandlerContext ctx, final Object message) throws Exception
+    {
+        final CardinalityTracker cardinality = cardinalityTracker;
+        final CallGraph graph = callGraph;
+        final CallOutcomeMetrics outcomes = callOutcomeMetrics;
+        if ((cardinality != null || graph != null || outcomes != null) && message instanceof Invocation)
+        {
+            final Invocation invocation = (Invocation) message;
+            // shared by the call metrics, so each call registers a single callback on its completion
+            final CallCompletion completion = graph != null || outcomes != null ? CallCompletion.of(invocation) : null;
+            if (outcomes != null)
+            {
+                outcomes.invocationSent(invocation, completion);
+            }
+            if (cardinality != null || graph != null)
+            {
+                // outbound invocations are written from the calling actor's context
+                final ActorTaskContext context = ActorTaskContext.current();
+                final AbstractActor<?> caller = context != null ? context.getActor() : null;
+                if (cardinality != null && caller != null)
+                {
+                    final RemoteReference<?> toReference = invocation.getToReference();
+                    cardinality.actorCalled(RemoteReference.getInterfaceClass(toReference), caller);
+                }
+                if (graph != null)
+                {
+                    graph.invocationSent(caller != null ? RemoteReference.getInterfaceClass(caller) : null, invocation, completion);
+                }
+            }
+            if (completion != null)
+            {
+                completion.awaitResponse(invocation);
+            }
+        }
+        return ctx.write(message);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Meter createMessageReceiveRateMeter(final Class<?> actorClass, final Method method)
+    {
+        return metricRegistry.meter(getActorTypeMessageReceiveRateMetricsKey((Class<? extends Actor>) actorClass, method));
+    }
+
     @Override
     public Task<?> preActivation(final AbstractActor<?> actor)
     {
-        String actorTypeActivationMetricsKey = getActorTypeActivationMetricsKey(RemoteReference.getInterfaceClass(actor));
-        Timer.Context timer = metricRegistry.timer(actorTypeActivationMetricsKey).time();
-        String actorActivationTimerKey = getActorTimerKey(actor);
-        actorActivationTimers.put(actorActivationTimerKey, timer);
+        final long now = System.nanoTime();
+        actorActivationStarts.put(actor, now);
+        final RecentDeactivations deactivations = recentDeactivations;
+        if (deactivations != null)
+        {
+            final ActorTypeMetrics metrics = actorTypeMetrics.get(RemoteReference.getInterfaceClass(actor));
+            final long gap = deactivations.reactivated(metrics.actorHash(actor), now);
+            if (gap != RecentDeactivations.NO_GAP)
+            {
+                metrics.reactivationGap.update(TimeUnit.NANOSECONDS.toMillis(gap));
+                if (gap <= thrashThresholdNanos)
+                {
+                    metrics.thrash.inc();
+                }
+            }
+        }
 
         return Task.done();
     }
@@ -119,19 +392,17 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
     @Override
     public Task<?> postActivation(final AbstractActor<?> actor)
     {
-        Timer.Context actorActivationTimer = actorActivationTimers.remove(getActorTimerKey(actor));
-        if (null != actorActivationTimer)
+        final long now = System.nanoTime();
+        final ActorTypeMetrics metrics = actorTypeMetrics.get(RemoteReference.getInterfaceClass(actor));
+        final long activationStart = actorActivationStarts.remove(actor);
+        if (activationStart != ActorTimestampTable.NO_TIMESTAMP)
         {
-            actorActivationTimer.stop();
+            metrics.activationTime.update(now - activationStart, TimeUnit.NANOSECONDS);
         }
-        
-        String actorCounterKey = getActorTypeCounterMetricsKey(RemoteReference.getInterfaceClass(actor));
-        metricRegistry.counter(actorCounterKey).inc();
 
-        String actorTypeLifetimeMetricsKey = getActorTypeLifetimeMetricsKey(RemoteReference.getInterfaceClass(actor));
-        Timer.Context timer = metricRegistry.timer(actorTypeLifetimeMetricsKey).time();
-        String actorLifetimeTimerKey = getActorTimerKey(actor);
-        actorLifetimeTimers.put(actorLifetimeTimerKey, timer);
+        metrics.count.inc();
+        metrics.activationRate.mark();
+        actorLifetimeStarts.put(actor, now);
 
         return Task.done();
     }
@@ -139,19 +410,16 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
     @Override
     public Task<?> preDeactivation(final AbstractActor<?> actor)
     {
-        Timer.Context lifetimeTimer = actorLifetimeTimers.remove(getActorTimerKey(actor));
-        if (null != lifetimeTimer)
+        final long now = System.nanoTime();
+        final ActorTypeMetrics metrics = actorTypeMetrics.get(RemoteReference.getInterfaceClass(actor));
+        final long lifetimeStart = actorLifetimeStarts.remove(actor);
+        if (lifetimeStart != ActorTimestampTable.NO_TIMESTAMP)
         {
-            lifetimeTimer.stop();
+            metrics.lifetime.update(now - lifetimeStart, TimeUnit.NANOSECONDS);
         }
 
-        String actorCounterKey = getActorTypeCounterMetricsKey(RemoteReference.getInterfaceClass(actor));
-        metricRegistry.counter(actorCounterKey).dec();
-
-        String actorDeactivationMetricsKey = getActorTypeDeactivationMetricsKey(RemoteReference.getInterfaceClass(actor));
-        Timer.Context timer = metricRegistry.timer(actorDeactivationMetricsKey).time();
-        String actorDeactivationTimerKey = getActorTimerKey(actor);
-        actorDeactivationTimers.put(actorDeactivationTimerKey, timer);
+        metrics.count.dec();
+        actorDeactivationStarts.put(actor, now);
 
         return Task.done();
     }
@@ -159,10 +427,18 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
     @Override
     public Task<?> postDeactivation(final AbstractActor<?> actor)
     {
-        Timer.Context deactivationTimer = actorDeactivationTimers.remove(getActorTimerKey(actor));
-        if (null != deactivationTimer)
+        final long now = System.nanoTime();
+        final ActorTypeMetrics metrics = actorTypeMetrics.get(RemoteReference.getInterfaceClass(actor));
+        final long deactivationStart = actorDeactivationStarts.remove(actor);
+        if (deactivationStart != ActorTimestampTable.NO_TIMESTAMP)
+        {
+            metrics.deactivationTime.update(now - deactivationStart, TimeUnit.NANOSECONDS);
+        }
+        metrics.deactivationRate.mark();
+        final RecentDeactivations deactivations = recentDeactivations;
+        if (deactivations != null)
         {
-            deactivationTimer.stop();
+            deactivations.deactivated(metrics.actorHash(actor), now);
         }
 
         return Task.done();
@@ -182,9 +458,9 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
      */
     public static String getActorTypeMessageReceiveRateMetricsKey(Class<? extends Actor> actorClass, Method actorMethod)
     {
-        String actorClassName = actorClass == null ? "(undefined)" : actorClass.getSimpleName();
+        String actorClassName = actorClass == null ? "(undefined)" : ActorNames.of(actorClass);
         String methodName = actorMethod == null ? "(undefined)" : actorMethod.getName();
-        return String.format("orbit.actors.msg_received_rate[actor:%s,method:%s]", actorClassName, methodName);
+        return MetricName.of("orbit.actors.msg_received_rate", "actor", actorClassName, "method", methodName).toString();
     }
 
     /**
@@ -195,7 +471,7 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
      */
     public static String getActorTypeCounterMetricsKey(Class<? extends Actor> actorClass)
     {
-        return String.format("orbit.actors.count[actor:%s]", actorClass.getSimpleName());
+        return MetricName.of("orbit.actors.count", "actor", ActorNames.of(actorClass)).toString();
     }
 
     /**
@@ -206,7 +482,7 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
      */
     public static String getActorTypeLifetimeMetricsKey(Class<? extends Actor> actorClass)
     {
-        return String.format("orbit.actors.lifetime[actor:%s]", actorClass.getSimpleName());
+        return MetricName.of("orbit.actors.lifetime", "actor", ActorNames.of(actorClass)).toString();
     }
 
     /**
@@ -217,7 +493,7 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
      */
     public static String getActorTypeActivationMetricsKey(Class<? extends Actor> actorClass)
     {
-        return String.format("orbit.actors.activation_time[actor:%s]", actorClass.getSimpleName());
+        return MetricName.of("orbit.actors.activation_time", "actor", ActorNames.of(actorClass)).toString();
     }
 
     /**
@@ -228,6 +504,72 @@ public class OrbitMetricsActorExtension extends NamedPipelineExtension implement
      */
     public static String getActorTypeDeactivationMetricsKey(Class<? extends Actor> actorClass)
     {
-        return String.format("orbit.actors.deactivation_time[actor:%s]", actorClass.getSimpleName());
+        return MetricName.of("orbit.actors.deactivation_time", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * Metrics key: Actor activation rate, per actor type
+     */
+    public static String getActorTypeActivationRateMetricsKey(Class<? extends Actor> actorClass)
+    {
+        return MetricName.of("orbit.actors.activation_rate", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * Metrics key: Actor deactivation rate, per actor type
+     */
+    public static String getActorTypeDeactivationRateMetricsKey(Class<? extends Actor> actorClass)
+    {
+        return MetricName.of("orbit.actors.deactivation_rate", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * Metrics key: Time between the deactivation and the reactivation of an actor in milliseconds, per actor type
+     */
+    public static String getActorTypeReactivationGapMetricsKey(Class<? extends Actor> actorClass)
+    {
+        return MetricName.of("orbit.actors.reactivation_gap", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * Metrics key: Actors reactivated within the thrash threshold of their deactivation, per actor type
+     */
+    public static String getActorTypeThrashMetricsKey(Class<? extends Actor> actorClass)
+    {
+        return MetricName.of("orbit.actors.thrash", "actor", ActorNames.of(actorClass)).toString();
+    }
+
+    /**
+     * The lifecycle metrics of one actor type, resolved once per type.
+     */
+    private static final class ActorTypeMetrics
+    {
+        private final Timer activationTime;
+        private final Timer lifetime;
+        private final Timer deactivationTime;
+        private final Counter count;
+        private final Meter activationRate;
+        private final Meter deactivationRate;
+        private final Histogram reactivationGap;
+        private final Counter thrash;
+        private final long typeHash;
+
+        ActorTypeMetrics(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final Class<? extends Actor> actorClass)
+        {
+            activationTime = reservoirFactory.timer(metricRegistry, getActorTypeActivationMetricsKey(actorClass));
+            lifetime = reservoirFactory.timer(metricRegistry, getActorTypeLifetimeMetricsKey(actorClass));
+            deactivationTime = reservoirFactory.timer(metricRegistry, getActorTypeDeactivationMetricsKey(actorClass));
+            count = metricRegistry.counter(getActorTypeCounterMetricsKey(actorClass));
+            activationRate = metricRegistry.meter(getActorTypeActivationRateMetricsKey(actorClass));
+            deactivationRate = metricRegistry.meter(getActorTypeDeactivationRateMetricsKey(actorClass));
+            reactivationGap = reservoirFactory.histogram(metricRegistry, getActorTypeReactivationGapMetricsKey(actorClass));
+            thrash = metricRegistry.counter(getActorTypeThrashMetricsKey(actorClass));
+            typeHash = HyperLogLog.hash(actorClass.getName());
+        }
+
+        long actorHash(final AbstractActor<?> actor)
+        {
+            return HyperLogLog.hash(typeHash, HyperLogLog.hash(RemoteReference.getId(actor)));
+        }
     }
-}
\ No newline at end of file
+}
@@ -29,6 +29,7 @@
 package cloud.orbit.actors.extensions.metrics.dropwizard;
 
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 import cloud.orbit.actors.runtime.DefaultInvocationHandler;
 import cloud.orbit.actors.runtime.Invocation;
@@ -43,47 +44,292 @@ import java.util.concurrent.TimeUnit;
 public class OrbitMetricsInvocationHandler extends DefaultInvocationHandler
 {
     private MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
+
+    private volatile SamplingStrategy samplingStrategy = SamplingStrategy.none();
+    private final ActorMethodCache<InvocationTimers> invocationTimers = new ActorMethodCache<>(this::createInvocationTimers);
+    private volatile MailboxMetrics mailboxMetrics;
+    private int maxMethodSeries = Integer.MAX_VALUE;
+    private long methodSeriesIdleTimeoutNanos;
+    private volatile HotActorTracker hotActorTracker;
+    private volatile RecordingBuffers recordingBuffers;
+    private volatile InvocationProfiler invocationProfiler;
+    private volatile SlowInvocationTracer slowInvocationTracer;
+    // beforeInvoke and afterInvoke of an invocation run on the same thread
+    private final ThreadLocal<StartedInvocation> startedInvocation = ThreadLocal.withInitial(StartedInvocation::new);
 
     public OrbitMetricsInvocationHandler() {
         this(new MetricRegistry());
     }
     
     public OrbitMetricsInvocationHandler(MetricRegistry metricRegistry) {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying());
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the invocation timers
+     */
+    public OrbitMetricsInvocationHandler(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory)
+    {
         super();
         this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+    }
+
+    public MetricRegistry getMetricRegistry()
+    {
+        return metricRegistry;
+    }
+
+    /**
+     * Sets how invocations are sampled. Each method response time and chain response time timer gets its own
+     * sampler, and the timers' counts and rates are rescaled to include the invocations that were not timed.
+     *
+     * @param samplingStrategy the sampling strategy, {@link SamplingStrategy#none()} times every invocation
+     */
+    public synchronized void setSamplingStrategy(final SamplingStrategy samplingStrategy)
+    {
+        this.samplingStrategy = samplingStrategy;
+        if (methodSeriesIdleTimeoutNanos > 0)
+        {
+            invocationTimers.limit(maxMethodSeries, createInvocationTimers(ActorNames.OVERFLOW, ActorNames.OVERFLOW));
+        }
+        // the timers are kept, the handles are created again with samplers of the new strategy
+        invocationTimers.clear();
+    }
+
+    /**
+     * Bounds the invocation timers: at most {@code maxSeries} (actor, method) pairs get their own timers, the
+     * others share the {@code [actor:(overflow),method:(overflow)]} timers, and the timers of pairs not invoked for
+     * the idle timeout are removed from the registry.
+     *
+     * @param maxSeries   maximum number of (actor, method) pairs timed individually
+     * @param idleTimeout how long timers may go unused before they are removed
+     * @param unit        the unit of the idle timeout
+     */
+    public synchronized void limitMethodSeries(final int maxSeries, final long idleTimeout, final TimeUnit unit)
+    {
+        this.maxMethodSeries = maxSeries;
+        this.methodSeriesIdleTimeoutNanos = unit.toNanos(idleTimeout);
+        invocationTimers.limit(maxSeries, createInvocationTimers(ActorNames.OVERFLOW, ActorNames.OVERFLOW));
+        invocationTimers.enableIdleEviction(
+                handle -> handle.methodResponseTime.getCount() + handle.chainResponseTime.getCount(),
+                this::removeInvocationTimers, idleTimeout, unit);
     }
     
+    /**
+     * Records the time invocations spend queued for their actor. The same {@link MailboxMetrics} must be given to
+     * {@link OrbitMetricsActorExtension#setMailboxMetrics}.
+     *
+     * @param mailboxMetrics the queue metrics, or null to disable them
+     */
+    public void setMailboxMetrics(final MailboxMetrics mailboxMetrics)
+    {
+        this.mailboxMetrics = mailboxMetrics;
+    }
+
+    /**
+     * Accumulates the execution time per actor id to find the hottest actors of each type. The same
+     * {@link HotActorTracker} should be given to {@link OrbitMetricsActorExtension#setHotActorTracker}.
+     *
+     * @param hotActorTracker the tracker, or null to disable it
+     */
+    public void setHotActorTracker(final HotActorTracker hotActorTracker)
+    {
+        this.hotActorTracker = hotActorTracker;
+    }
+
+    /**
+     * Records the response times through per thread buffers applied in batches, rather than directly. The same
+     * {@link RecordingBuffers} can be shared with the actor and messaging extensions.
+     *
+     * @param recordingBuffers the buffers, or null to record directly
+     */
+    public void setRecordingBuffers(final RecordingBuffers recordingBuffers)
+    {
+        this.recordingBuffers = recordingBuffers;
+    }
+
+    /**
+     * Samples the CPU time and the bytes allocated by the synchronous execution of actor methods.
+     *
+     * @param invocationProfiler the profiler, or null to disable it
+     */
+    public void setInvocationProfiler(final InvocationProfiler invocationProfiler)
+    {
+        this.invocationProfiler = invocationProfiler;
+    }
+
+    /**
+     * Keeps the slowest invocations of each window, with their actor id, method, queue wait and message size.
+     *
+     * @param slowInvocationTracer the tracer, or null to disable it
+     */
+    public void setSlowInvocationTracer(final SlowInvocationTracer slowInvocationTracer)
+    {
+        this.slowInvocationTracer = slowInvocationTracer;
+    }
+
+    @Override
+    public void beforeInvoke(final Invocation invocation, final Method method)
+    {
+        super.beforeInvoke(invocation, method);
+        final MailboxMetrics mailbox = mailboxMetrics;
+        final InvocationProfiler profiler = invocationProfiler;
+        if (mailbox != null || profiler != null)
+        {
+            final Class<?> actorClass = RemoteReference.getInterfaceClass(invocation.getToReference());
+            if (mailbox != null)
+            {
+                // leaves the queue before running, so the queue depth does not count the running invocation
+                final long queueWaitNanos = mailbox.invocationStarted(invocation, actorClass, method, System.nanoTime());
+                if (slowInvocationTracer != null)
+                {
+                    startedInvocation.get().started(invocation, queueWaitNanos);
+                }
+            }
+            if (profiler != null)
+            {
+                profiler.invocationStarting(invocation, actorClass, method);
+            }
+        }
+    }
+
     @Override
     public void afterInvoke(final long startTimeNanos, final Invocation invocation, final Method method)
     {
-        final RemoteReference<?> toReference = invocation.getToReference();
+        final InvocationProfiler profiler = invocationProfiler;
+        if (profiler != null)
+        {
+            // first, so the metrics recorded below are not attributed to the actor method
+            profiler.invocationExecuted(invocation);
+        }
         super.afterInvoke(startTimeNanos, invocation, method);
-        final long durationNanos = (System.nanoTime() - startTimeNanos);
-        Class<?> actorClass = RemoteReference.getInterfaceClass(toReference);
-        String metricsKey = getActorMethodResponseTimeMetricsKey(actorClass, method.getName());
-
-        metricRegistry.timer(metricsKey).update(durationNanos, TimeUnit.NANOSECONDS);
+        final RemoteReference<?> toReference = invocation.getToReference();
+        final Class<?> actorClass = RemoteReference.getInterfaceClass(toReference);
+        final InvocationTimers timers = invocationTimers.get(actorClass, method);
+        final long weight = timers.methodResponseTimeSampler.sample();
+        final HotActorTracker tracker = hotActorTracker;
+        final SlowInvocationTracer slowTracer = slowInvocationTracer;
+        if (weight != 0 || tracker != null || slowTracer != null)
+        {
+            final long durationNanos = (System.nanoTime() - startTimeNanos);
+            if (weight != 0)
+            {
+                RecordingBuffers.update(recordingBuffers, timers.methodResponseTime, durationNanos, TimeUnit.NANOSECONDS, weight);
+            }
+            if (tracker != null)
+            {
+                tracker.invocationExecuted(recordingBuffers, actorClass, toReference, durationNanos);
+            }
+            if (slowTracer != null && slowTracer.isSlow(durationNanos))
+            {
+                // the thread local is only read for the few invocations slow enough to be recorded, the others
+                // leave theirs to be replaced by the next invocation of the thread
+                final long queueWaitNanos = mailboxMetrics != null ? startedInvocation.get().queueWaitNanos(invocation) : -1;
+                slowTracer.invocationExecuted(invocation, actorClass, method, durationNanos, queueWaitNanos);
+            }
+        }
     }
 
     @Override
-    public void taskComplete(long startTimeNanos, Invocation invocation, Method method)
+    public void taskComplete(final long startTimeNanos, final Invocation invocation, final Method method)
+    {
+        super.taskComplete(startTimeNanos, invocation, method);
+        final InvocationTimers timers = getInvocationTimers(invocation, method);
+        final long weight = timers.chainResponseTimeSampler.sample();
+        if (weight != 0)
+        {
+            final long durationNanos = (System.nanoTime() - startTimeNanos);
+            RecordingBuffers.update(recordingBuffers, timers.chainResponseTime, durationNanos, TimeUnit.NANOSECONDS, weight);
+        }
+    }
+
+    private InvocationTimers getInvocationTimers(final Invocation invocation, final Method method)
     {
         final RemoteReference<?> toReference = invocation.getToReference();
-        super.afterInvoke(startTimeNanos, invocation, method);
-        final long durationNanos = (System.nanoTime() - startTimeNanos);
-        Class<?> actorClass = RemoteReference.getInterfaceClass(toReference);
-        String metricsKey = getActorChainResponseTimeMetricsKey(actorClass, method.getName());
-        metricRegistry.timer(metricsKey).update(durationNanos, TimeUnit.NANOSECONDS);
+        return invocationTimers.get(RemoteReference.getInterfaceClass(toReference), method);
     }
 
+    private InvocationTimers createInvocationTimers(final Class<?> actorClass, final Method method)
+    {
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        return createInvocationTimers(ActorNames.of(actorClass), methodName);
+    }
+
+    private InvocationTimers createInvocationTimers(final String actorName, final String methodName)
+    {
+        return new InvocationTimers(
+                reservoirFactory.scaledTimer(metricRegistry, getActorMethodResponseTimeMetricsKey(actorName, methodName)),
+                reservoirFactory.scaledTimer(metricRegistry, getActorChainResponseTimeMetricsKey(actorName, methodName)),
+                samplingStrategy);
+    }
+
+    private void removeInvocationTimers(final Class<?> actorClass, final Method method)
+    {
+        final String methodName = method == null ? "(undefined)" : method.getName();
+        metricRegistry.remove(getActorMethodResponseTimeMetricsKey(actorClass, methodName));
+        metricRegistry.remove(getActorChainResponseTimeMetricsKey(actorClass, methodName));
+    }
 
     public static String getActorMethodResponseTimeMetricsKey(Class<?> actorClass, String methodName)
     {
-        return String.format("orbit.actors.methodresponsetime[actor:%s,method:%s]", actorClass.getSimpleName(), methodName);
+        return getActorMethodResponseTimeMetricsKey(ActorNames.of(actorClass), methodName);
     }
 
     public static String getActorChainResponseTimeMetricsKey(Class<?> actorClass, String methodName)
     {
-        return String.format("orbit.actors.chainresponsetime[actor:%s,method:%s]", actorClass.getSimpleName(), methodName);
+        return getActorChainResponseTimeMetricsKey(ActorNames.of(actorClass), methodName);
+    }
+
+    private static String getActorMethodResponseTimeMetricsKey(String actorName, String methodName)
+    {
+        return MetricName.of("orbit.actors.methodresponsetime", "actor", actorName, "method", methodName).toString();
+    }
+
+    private static String getActorChainResponseTimeMetricsKey(String actorName, String methodName)
+    {
+        return MetricName.of("orbit.actors.chainresponsetime", "actor", actorName, "method", methodName).toString();
+    }
+
+    /**
+     * The timers of one actor method, resolved once and reused for every invocation.
+     */
+    private static final class InvocationTimers
+    {
+        private final Timer methodResponseTime;
+        private final Timer chainResponseTime;
+        private final Sampler methodResponseTimeSampler;
+        private final Sampler chainResponseTimeSampler;
+
+        InvocationTimers(final Timer methodResponseTime, final Timer chainResponseTime, final SamplingStrategy samplingStrategy)
+        {
+            this.methodResponseTime = methodResponseTime;
+            this.chainResponseTime = chainResponseTime;
+            this.methodResponseTimeSampler = samplingStrategy.newSampler();
+            this.chainResponseTimeSampler = samplingStrategy.newSampler();
+        }
+    }
+
+    /**
+     * The queue wait of the invocation started last on a thread, kept from beforeInvoke for afterInvoke.
+     */
+    private static final class StartedInvocation
+    {
+        private Invocation invocation;
+        private long queueWaitNanos;
+
+        void started(final Invocation invocation, final long queueWaitNanos)
+        {
+            this.invocation = invocation;
+            this.queueWaitNanos = queueWaitNanos;
+        }
+
+        long queueWaitNanos(final Invocation invocation)
+        {
+            final long waitNanos = this.invocation == invocation ? queueWaitNanos : -1;
+            this.invocation = null;
+            return waitNanos;
+        }
     }
 }
@@ -35,6 +35,7 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 
+import cloud.orbit.actors.cluster.NodeAddress;
 import cloud.orbit.actors.extensions.NamedPipelineExtension;
 import cloud.orbit.actors.net.HandlerContext;
 import cloud.orbit.actors.runtime.DefaultHandlers;
@@ -58,12 +59,24 @@ public class OrbitMetricsMessagingExtension extends NamedPipelineExtension
     private static final String MESSAGING_METRICS_PIPELINE_NAME = "messaging-metrics-pipeline";
     private static final String MESSAGING_METRICS_UNTIMED = "orbit.messaging.untimed";
     private static final String MESSAGING_METRICS_HEADER_TIMESTAMP = "metrics-ts";
+    private static final String MESSAGING_METRICS_HEADER_SAMPLE_WEIGHT = "metrics-sw";
+    private static final String MESSAGING_METRICS_ROUND_TRIP_TIME = "orbit.messaging.round_trip_time";
+    private static final String MESSAGING_METRICS_PEER = "orbit.messaging.peer";
+    private static final String OVERFLOW_PEER_NAME = "(other)";
+    private static final int MAX_PEER_CLOCKS = 4096;
+    private static final long PEER_CLOCK_IDLE_TIMEOUT_MINUTES = 10;
 
-
-    private Map<Integer, Timer> inboundMetrics = new HashMap<>();
-    private Map<Integer, Meter> outboundMetrics = new HashMap<>();
+    private volatile MessageTypeMetrics[] messageTypeMetrics;
+    private final Meter untimedInboundMeter;
+    private volatile SamplingStrategy samplingStrategy = SamplingStrategy.none();
+    private volatile LatencyMode latencyMode = LatencyMode.WALL_CLOCK;
+    private volatile Timer roundTripTimer;
+    private volatile PeerCache<PeerClock> peerClocks;
+    private volatile PeerCache<PeerMessagingMetrics> peerMetrics;
+    private volatile RecordingBuffers recordingBuffers;
 
     private MetricRegistry metricRegistry;
+    private final ReservoirFactory reservoirFactory;
 
     public OrbitMetricsMessagingExtension()
     {
@@ -74,15 +87,30 @@ public class OrbitMetricsMessagingExtension extends NamedPipelineExtension
         this(metricRegistry, MESSAGING_METRICS_PIPELINE_NAME, null, DefaultHandlers.MESSAGING);
     }
 
+    public OrbitMetricsMessagingExtension(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory)
+    {
+        this(metricRegistry, reservoirFactory, MESSAGING_METRICS_PIPELINE_NAME, null, DefaultHandlers.MESSAGING);
+    }
+
     public OrbitMetricsMessagingExtension(final String name, final String beforeHandlerName, final String afterHandlerName)
     {
         this(new MetricRegistry(), name, beforeHandlerName, afterHandlerName);
     }
     
     public OrbitMetricsMessagingExtension(MetricRegistry metricRegistry, final String name, final String beforeHandlerName, final String afterHandlerName)
+    {
+        this(metricRegistry, ReservoirFactory.exponentiallyDecaying(), name, beforeHandlerName, afterHandlerName);
+    }
+
+    /**
+     * @param reservoirFactory creates the reservoirs of the inbound message timers
+     */
+    public OrbitMetricsMessagingExtension(final MetricRegistry metricRegistry, final ReservoirFactory reservoirFactory, final String name, final String beforeHandlerName, final String afterHandlerName)
     {
         super(name, beforeHandlerName, afterHandlerName);
         this.metricRegistry = metricRegistry;
+        this.reservoirFactory = reservoirFactory;
+        this.untimedInboundMeter = metricRegistry.meter(MetricName.of(MESSAGING_METRICS_UNTIMED, "direction", "inbound").toString());
         setupMetrics();
     }
 
@@ -90,19 +118,110 @@ public class OrbitMetricsMessagingExtension extends NamedPipelineExtension
         return metricRegistry;
     }
 
-    private void setupMetrics()
+    /**
+     * Sets how outbound messages are sampled, with one sampler per message type. Only sampled messages get the
+     * timestamp header, so the receiving node times them and rescales its inbound timer using the sample weight
+     * carried with the message. Messages that were sampled out are counted by the receiver as untimed.
+     *
+     * @param samplingStrategy the sampling strategy, {@link SamplingStrategy#none()} times every message
+     */
+    public void setSamplingStrategy(final SamplingStrategy samplingStrategy)
+    {
+        this.samplingStrategy = samplingStrategy;
+        setupMetrics();
+    }
+
+    /**
+     * Sets how inbound message latency is measured. Nodes read both timestamp formats, so nodes in different modes
+     * can share a cluster, but peer clock offsets are only estimated between nodes in
+     * {@link LatencyMode#SKEW_CORRECTED} mode. In that mode the round trip time of requests is also recorded in
+     * {@code orbit.messaging.round_trip_time}.
+     *
+     * @param latencyMode the latency mode, {@link LatencyMode#WALL_CLOCK} by default
+     */
+    public void setLatencyMode(final LatencyMode latencyMode)
+    {
+        if (latencyMode == LatencyMode.SKEW_CORRECTED && roundTripTimer == null)
+        {
+            roundTripTimer = reservoirFactory.timer(metricRegistry, MESSAGING_METRICS_ROUND_TRIP_TIME);
+            peerClocks = new PeerCache<>(node -> new PeerClock(), clock -> {}, null,
+                    MAX_PEER_CLOCKS, PEER_CLOCK_IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        }
+        this.latencyMode = latencyMode;
+    }
+
+    /**
+     * Records the message metrics through per thread buffers applied in batches, rather than directly. The same
+     * {@link RecordingBuffers} can be shared with the actor extension and the invocation handler.
+     *
+     * @param recordingBuffers the buffers, or null to record directly
+     */
+    public void setRecordingBuffers(final RecordingBuffers recordingBuffers)
+    {
+        this.recordingBuffers = recordingBuffers;
+    }
+
+    /**
+     * Also records inbound latency and outbound rate per peer node, in
+     * {@code orbit.messaging.peer[node:%s,direction:inbound|outbound]}. At most {@code maxPeers} nodes are tracked
+     * individually, the others share the {@code node:(other)} metrics, and the metrics of nodes that have not
+     * exchanged messages with this node for the idle timeout are removed from the registry. Enabling it again removes
+     * the metrics of the previous breakdown.
+     *
+     * @param maxPeers    maximum number of peer nodes with their own metrics
+     * @param idleTimeout how long a peer may be silent before its metrics are removed
+     * @param unit        the unit of the idle timeout
+     */
+    public synchronized void enablePeerBreakdown(final int maxPeers, final long idleTimeout, final TimeUnit unit)
+    {
+        final PeerCache<PeerMessagingMetrics> previous = peerMetrics;
+        if (previous != null)
+        {
+            // released before the new cache registers metrics of the same names
+            previous.close();
+        }
+        peerMetrics = new PeerCache<>(node -> new PeerMessagingMetrics(String.valueOf(node)),
+                PeerMessagingMetrics::remove, new PeerMessagingMetrics(OVERFLOW_PEER_NAME), maxPeers, idleTimeout, unit);
+    }
+
+    /**
+     * Returns the estimated clock offset of each peer node in microseconds, positive when the peer's clock is ahead.
+     */
+    public Map<NodeAddress, Long> getPeerClockOffsets()
+    {
+        final Map<NodeAddress, Long> offsets = new HashMap<>();
+        final PeerCache<PeerClock> clocks = peerClocks;
+        if (clocks == null)
+        {
+            return offsets;
+        }
+        clocks.forEach((node, clock) -> {
+            if (clock.isSynchronized())
+            {
+                offsets.put(node, clock.getOffsetMicros());
+            }
+        });
+        return offsets;
+    }
+
+    private PeerClock getPeerClock(final NodeAddress node)
     {
-        inboundMetrics.put((int) MessageDefinitions.ONE_WAY_MESSAGE, metricRegistry.timer("orbit.messaging[type:one_way_message,direction:inbound]"));
-        inboundMetrics.put((int) MessageDefinitions.REQUEST_MESSAGE, metricRegistry.timer("orbit.messaging[type:request_message,direction:inbound]"));
-        inboundMetrics.put((int) MessageDefinitions.RESPONSE_ERROR, metricRegistry.timer("orbit.messaging[type:response_error,direction:inbound]"));
-        inboundMetrics.put((int) MessageDefinitions.RESPONSE_OK, metricRegistry.timer("orbit.messaging[type:response_ok,direction:inbound]"));
-        inboundMetrics.put((int) MessageDefinitions.RESPONSE_PROTOCOL_ERROR, metricRegistry.timer("orbit.messaging[type:response_protocol_error,direction:inbound]"));
+        final PeerCache<PeerClock> clocks = peerClocks;
+        return clocks == null ? null : clocks.get(node);
+    }
 
-        outboundMetrics.put((int) MessageDefinitions.ONE_WAY_MESSAGE, metricRegistry.meter("orbit.messaging[type:one_way_message,direction:outbound]"));
-        outboundMetrics.put((int) MessageDefinitions.REQUEST_MESSAGE, metricRegistry.meter("orbit.messaging[type:request_message,direction:outbound]"));
-        outboundMetrics.put((int) MessageDefinitions.RESPONSE_ERROR, metricRegistry.meter("orbit.messaging[type:response_error,direction:outbound]"));
-        outboundMetrics.put((int) MessageDefinitions.RESPONSE_OK, metricRegistry.meter("orbit.messaging[type:response_ok,direction:outbound]"));
-        outboundMetrics.put((int) MessageDefinitions.RESPONSE_PROTOCOL_ERROR, metricRegistry.meter("orbit.messaging[type:response_protocol_error,direction:outbound]"));
+    private void setupMetrics()
+    {
+        final MessageTypeMetrics[] metrics = new MessageTypeMetrics[MessageTypes.indexLength()];
+        for (int i = 0; i < MessageTypes.TYPES.length; i++)
+        {
+            final String typeName = MessageTypes.NAMES[i];
+            metrics[MessageTypes.TYPES[i]] = new MessageTypeMetrics(
+                    reservoirFactory.scaledTimer(metricRegistry, MetricName.of("orbit.messaging", "type", typeName, "direction", "inbound").toString()),
+                    metricRegistry.meter(MetricName.of("orbit.messaging", "type", typeName, "direction", "outbound").toString()),
+                    samplingStrategy.newSampler());
+        }
+        messageTypeMetrics = metrics;
     }
 
     @Override
@@ -112,18 +231,19 @@ public class OrbitMetricsMessagingExtension extends NamedPipelineExtension
         if (object instanceof Message)
         {
             Message message = (Message) object;
+            Number correctedTimestamp = (Number) message.getHeader(MessageTimestamps.HEADER_TIMESTAMP);
             Long messageCreationTimestamp = (Long) message.getHeader(MESSAGING_METRICS_HEADER_TIMESTAMP);
-            if(messageCreationTimestamp != null)
+            if (correctedTimestamp != null)
             {
-                Timer metric = inboundMetrics.get(message.getMessageType());
-                if (metric != null)
-                {
-                    metric.update(now - messageCreationTimestamp, TimeUnit.MILLISECONDS);
-                }
+                readCorrectedTimestamp(message, correctedTimestamp.longValue(), sampleWeight(message));
+            }
+            else if(messageCreationTimestamp != null)
+            {
+                recordInboundLatency(message, now - messageCreationTimestamp, TimeUnit.MILLISECONDS, sampleWeight(message));
             }
             else
             {
-                metricRegistry.meter(MESSAGING_METRICS_UNTIMED + "[direction:inbound]").mark();
+                RecordingBuffers.mark(recordingBuffers, untimedInboundMeter, 1);
             }
         }
         ctx.fireRead(object);
@@ -135,14 +255,159 @@ public class OrbitMetricsMessagingExtension extends NamedPipelineExtension
         if (object instanceof Message)
         {
             Message message = (Message) object;
-            Meter metric = outboundMetrics.get(message.getMessageType());
-            if (metric != null)
+            long weight = 1;
+            final RecordingBuffers buffers = recordingBuffers;
+            MessageTypeMetrics metrics = MessageTypes.get(messageTypeMetrics, message.getMessageType());
+            if (metrics != null)
+            {
+                weight = metrics.outboundSampler.sample();
+                if (weight == 0)
+                {
+                    return ctx.write(object);
+                }
+                RecordingBuffers.mark(buffers, metrics.outbound, weight);
+            }
+            final PeerCache<PeerMessagingMetrics> peers = peerMetrics;
+            if (peers != null)
+            {
+                final PeerMessagingMetrics peer = peers.get(message.getToNode());
+                if (peer != null)
+                {
+                    RecordingBuffers.mark(buffers, peer.outbound, weight);
+                }
+            }
+
+            if (latencyMode == LatencyMode.SKEW_CORRECTED)
+            {
+                writeCorrectedTimestamp(message);
+            }
+            else
+            {
+                message.setHeader(MESSAGING_METRICS_HEADER_TIMESTAMP, Long.valueOf(System.currentTimeMillis()));
+            }
+            if (weight > 1)
             {
-                metric.mark();
+                message.setHeader(MESSAGING_METRICS_HEADER_SAMPLE_WEIGHT, Long.valueOf(weight));
             }
-            
-            message.setHeader(MESSAGING_METRICS_HEADER_TIMESTAMP, Long.valueOf(System.currentTimeMillis()));
         }
         return ctx.write(object);
     }
+
+    private static long sampleWeight(final Message message)
+    {
+        final Number sampleWeight = (Number) message.getHeader(MESSAGING_METRICS_HEADER_SAMPLE_WEIGHT);
+        return sampleWeight == null ? 1 : sampleWeight.longValue();
+    }
+
+    private void writeCorrectedTimestamp(final Message message)
+    {
+        message.setHeader(MessageTimestamps.HEADER_TIMESTAMP, Long.valueOf(MessageTimestamps.nowMicros()));
+        if (isResponse(message.getMessageType()))
+        {
+            final PeerClock peerClock = getPeerClock(message.getToNode());
+            if (peerClock != null)
+            {
+                peerClock.echoRequest(message.getMessageId(), message);
+            }
+        }
+    }
+
+    private void readCorrectedTimestamp(final Message message, final long sent, final long weight)
+    {
+        final long now = MessageTimestamps.nowMicros();
+        final int messageType = message.getMessageType();
+        final PeerClock peerClock = getPeerClock(message.getFromNode());
+        if (peerClock != null)
+        {
+            if (messageType == MessageDefinitions.REQUEST_MESSAGE)
+            {
+                peerClock.requestReceived(message.getMessageId(), sent, now);
+            }
+            else if (isResponse(messageType))
+            {
+                final Number requestSent = (Number) message.getHeader(MessageTimestamps.HEADER_REQUEST_SENT);
+                final Number requestReceived = (Number) message.getHeader(MessageTimestamps.HEADER_REQUEST_RECEIVED);
+                final Timer roundTrip = roundTripTimer;
+                if (requestSent != null && requestReceived != null)
+                {
+                    final long roundTripMicros = peerClock.exchangeCompleted(requestSent.longValue(), requestReceived.longValue(), sent, now);
+                    if (roundTrip != null)
+                    {
+                        roundTrip.update(roundTripMicros, TimeUnit.MICROSECONDS);
+                    }
+                }
+            }
+        }
+
+        final long sentLocal = peerClock != null ? peerClock.toLocalMicros(sent) : sent;
+        recordInboundLatency(message, Math.max(0, now - sentLocal), TimeUnit.MICROSECONDS, weight);
+    }
+
+    private void recordInboundLatency(final Message message, final long latency, final TimeUnit unit, final long weight)
+    {
+        final RecordingBuffers buffers = recordingBuffers;
+        final MessageTypeMetrics metrics = MessageTypes.get(messageTypeMetrics, message.getMessageType());
+        if (metrics != null)
+        {
+            RecordingBuffers.update(buffers, metrics.inbound, latency, unit, weight);
+        }
+        final PeerCache<PeerMessagingMetrics> peers = peerMetrics;
+        if (peers != null)
+        {
+            final PeerMessagingMetrics peer = peers.get(message.getFromNode());
+            if (peer != null)
+            {
+                RecordingBuffers.update(buffers, peer.inbound, latency, unit, weight);
+            }
+        }
+    }
+
+    private static boolean isResponse(final int messageType)
+    {
+        return messageType == MessageDefinitions.RESPONSE_OK
+                || messageType == MessageDefinitions.RESPONSE_ERROR
+                || messageType == MessageDefinitions.RESPONSE_PROTOCOL_ERROR;
+    }
+
+    /**
+     * The metrics of one message type.
+     */
+    private static final class MessageTypeMetrics
+    {
+        private final Timer inbound;
+        private final Meter outbound;
+        private final Sampler outboundSampler;
+
+        MessageTypeMetrics(final Timer inbound, final Meter outbound, final Sampler outboundSampler)
+        {
+            this.inbound = inbound;
+            this.outbound = outbound;
+            this.outboundSampler = outboundSampler;
+        }
+    }
+
+    /**
+     * The metrics of one peer node.
+     */
+    private final class PeerMessagingMetrics
+    {
+        private final String inboundName;
+        private final String outboundName;
+        private final Timer inbound;
+        private final Meter outbound;
+
+        PeerMessagingMetrics(final String nodeName)
+        {
+            inboundName = MetricName.of(MESSAGING_METRICS_PEER, "node", nodeName, "direction", "inbound").toString();
+            outboundName = MetricName.of(MESSAGING_METRICS_PEER, "node", nodeName, "direction", "outbound").toString();
+            inbound = reservoirFactory.scaledTimer(metricRegistry, inboundName);
+            outbound = metricRegistry.meter(outboundName);
+        }
+
+        void remove()
+        {
+            metricRegistry.remove(inboundName);
+            metricRegistry.remove(outboundName);
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import cloud.orbit.actors.cluster.NodeAddress;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Per peer node state with a bounded number of peers.
+ * <p>
+ * Peers that have not been seen for the idle timeout are evicted by a background sweep, which releases their
+ * metrics through the eviction callback, so nodes leaving a churning cluster do not accumulate. Once the limit is
+ * reached, further peers share the overflow value until room is freed.
+ * <p>
+ * Values are created and evicted while holding the cache's lock, and an evicted value is released before it is
+ * removed, so a peer seen during its eviction gets a value created after the release rather than one built from
+ * metrics that are about to be removed. A cache that is {@link #close closed} releases its values and stops
+ * creating new ones.
+ */
+final class PeerCache<H>
+{
+    private final Map<NodeAddress, Entry<H>> entries = new ConcurrentHashMap<>();
+    private final Function<NodeAddress, H> factory;
+    private final Consumer<H> onEvict;
+    private final H overflow;
+    private final int maxPeers;
+    private final int idleSweeps;
+    private final ScheduledFuture<?> sweep;
+    private boolean closed;
+
+    /**
+     * @param factory     creates the value of a new peer
+     * @param onEvict     releases the value of an evicted peer
+     * @param overflow    value shared by the peers over the limit, or null to not track them
+     * @param maxPeers    maximum number of peers tracked individually
+     * @param idleTimeout how long a peer may go unseen before it is evicted
+     */
+    PeerCache(final Function<NodeAddress, H> factory, final Consumer<H> onEvict, final H overflow,
+              final int maxPeers, final long idleTimeout, final TimeUnit unit)
+    {
+        this.factory = factory;
+        this.onEvict = onEvict;
+        this.overflow = overflow;
+        this.maxPeers = maxPeers;
+        // sweep four times per idle timeout, evicting after four sweeps without a sighting
+        this.idleSweeps = 4;
+        final long sweepPeriodMillis = Math.max(1, unit.toMillis(idleTimeout) / idleSweeps);
+        sweep = MetricsScheduler.scheduleAtFixedRate(this, PeerCache::evictIdle, sweepPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the value of the peer, the overflow value if too many peers are tracked, or null for a null node
+     */
+    H get(final NodeAddress node)
+    {
+        if (node == null)
+        {
+            return null;
+        }
+        final Entry<H> entry = entries.get(node);
+        if (entry == null)
+        {
+            return create(node);
+        }
+        if (!entry.seen)
+        {
+            entry.seen = true;
+        }
+        return entry.value;
+    }
+
+    private synchronized H create(final NodeAddress node)
+    {
+        final Entry<H> entry = entries.get(node);
+        if (entry != null)
+        {
+            entry.seen = true;
+            return entry.value;
+        }
+        if (closed || entries.size() >= maxPeers)
+        {
+            return overflow;
+        }
+        final H value = factory.apply(node);
+        entries.put(node, new Entry<>(value));
+        return value;
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    void forEach(final BiConsumer<NodeAddress, H> action)
+    {
+        entries.forEach((node, entry) -> action.accept(node, entry.value));
+    }
+
+    synchronized void evictIdle()
+    {
+        final Iterator<Entry<H>> iterator = entries.values().iterator();
+        while (iterator.hasNext())
+        {
+            final Entry<H> entry = iterator.next();
+            if (entry.seen)
+            {
+                entry.seen = false;
+                entry.unseenSweeps = 0;
+            }
+            else if (++entry.unseenSweeps >= idleSweeps)
+            {
+                onEvict.accept(entry.value);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops the sweep and releases the values of every peer; peers seen afterwards get the overflow value.
+     */
+    synchronized void close()
+    {
+        closed = true;
+        sweep.cancel(false);
+        final Iterator<Entry<H>> iterator = entries.values().iterator();
+        while (iterator.hasNext())
+        {
+            onEvict.accept(iterator.next().value);
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry<H>
+    {
+        private final H value;
+        private volatile boolean seen = true;
+        private int unseenSweeps;
+
+        Entry(final H value)
+        {
+            this.value = value;
+        }
+    }
+}
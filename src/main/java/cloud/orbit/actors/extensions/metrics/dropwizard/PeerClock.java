@@ -0,0 +1,131 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import cloud.orbit.actors.runtime.Message;
+
+/**
+ * Clock offset estimate of one peer node, from NTP style request and response exchanges.
+ * <p>
+ * When a request from the peer arrives, its send timestamp t0 and the local receive time t1 are remembered in a
+ * small ring indexed by message id, and echoed in the response. When a response to one of our requests arrives
+ * with the echoed t0 and t1, its own send time t2 and the local receive time t3 give
+ * {@code offset = ((t1 - t0) + (t2 - t3)) / 2} and {@code rtt = (t3 - t0) - (t2 - t1)}. As in NTP's clock filter,
+ * the offset of the sample with the smallest round trip among the recent ones is used, since it has the least
+ * queueing asymmetry.
+ */
+final class PeerClock
+{
+    private static final int RING_SIZE = 256;
+    private static final int FILTER_SIZE = 8;
+
+    private final int[] requestIds = new int[RING_SIZE];
+    private final long[] requestSentMicros = new long[RING_SIZE];
+    private final long[] requestReceivedMicros = new long[RING_SIZE];
+    private final boolean[] requestPending = new boolean[RING_SIZE];
+
+    private final long[] filterOffsets = new long[FILTER_SIZE];
+    private final long[] filterRoundTrips = new long[FILTER_SIZE];
+    private int filterCount;
+    private int filterNext;
+
+    private volatile long offsetMicros;
+    private volatile boolean synchronizedWithPeer;
+
+    /**
+     * Remembers when a request from the peer was sent and received, to echo both in the response.
+     */
+    synchronized void requestReceived(final int messageId, final long sentMicros, final long receivedMicros)
+    {
+        final int slot = messageId & (RING_SIZE - 1);
+        requestIds[slot] = messageId;
+        requestSentMicros[slot] = sentMicros;
+        requestReceivedMicros[slot] = receivedMicros;
+        requestPending[slot] = true;
+    }
+
+    /**
+     * Echoes the send and receive timestamps of the request answered by a response to the peer.
+     * Nothing is added if the request is unknown or its slot has been reused.
+     */
+    synchronized void echoRequest(final int messageId, final Message response)
+    {
+        final int slot = messageId & (RING_SIZE - 1);
+        if (requestPending[slot] && requestIds[slot] == messageId)
+        {
+            requestPending[slot] = false;
+            response.setHeader(MessageTimestamps.HEADER_REQUEST_SENT, Long.valueOf(requestSentMicros[slot]));
+            response.setHeader(MessageTimestamps.HEADER_REQUEST_RECEIVED, Long.valueOf(requestReceivedMicros[slot]));
+        }
+    }
+
+    /**
+     * Adds the sample of a completed exchange.
+     *
+     * @return the round trip time of the exchange in microseconds
+     */
+    synchronized long exchangeCompleted(final long t0, final long t1, final long t2, final long t3)
+    {
+        final long roundTrip = Math.max(0, (t3 - t0) - (t2 - t1));
+        filterOffsets[filterNext] = ((t1 - t0) + (t2 - t3)) / 2;
+        filterRoundTrips[filterNext] = roundTrip;
+        filterNext = (filterNext + 1) % FILTER_SIZE;
+        filterCount = Math.min(FILTER_SIZE, filterCount + 1);
+
+        int best = 0;
+        for (int i = 1; i < filterCount; i++)
+        {
+            if (filterRoundTrips[i] < filterRoundTrips[best])
+            {
+                best = i;
+            }
+        }
+        offsetMicros = filterOffsets[best];
+        synchronizedWithPeer = true;
+        return roundTrip;
+    }
+
+    /**
+     * Converts a timestamp of the peer's clock to the local clock.
+     */
+    long toLocalMicros(final long peerMicros)
+    {
+        return synchronizedWithPeer ? peerMicros - offsetMicros : peerMicros;
+    }
+
+    long getOffsetMicros()
+    {
+        return offsetMicros;
+    }
+
+    boolean isSynchronized()
+    {
+        return synchronizedWithPeer;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.Arrays;
+
+/**
+ * Bounded table of the recently deactivated actors, keyed by a 64 bit hash of their type and id.
+ * <p>
+ * The table is a fixed array of small buckets. Entries older than the window are treated as absent, and a
+ * deactivation recorded into a full bucket replaces its oldest entry, so the memory used does not depend on the
+ * number of actors and old deactivations decay out of the table. A reactivation is therefore only matched when its
+ * deactivation is within the window and was not pushed out by more recent ones; two ids whose hashes collide are
+ * taken for the same actor.
+ */
+final class RecentDeactivations
+{
+    static final long NO_GAP = -1;
+
+    private static final int BUCKET_SIZE = 4;
+    private static final int LOCK_STRIPES = 64;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] keys;
+    private final long[] timestamps;
+    private final int bucketMask;
+    private final long windowNanos;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * @param capacity    number of deactivations kept, rounded up to a power of two
+     * @param windowNanos age after which a deactivation is forgotten
+     */
+    RecentDeactivations(final int capacity, final long windowNanos)
+    {
+        final int size = Integer.highestOneBit(Math.max(BUCKET_SIZE, capacity) * 2 - 1);
+        this.keys = new long[size];
+        this.timestamps = new long[size];
+        Arrays.fill(timestamps, EMPTY);
+        this.bucketMask = size / BUCKET_SIZE - 1;
+        this.windowNanos = windowNanos;
+        for (int i = 0; i < LOCK_STRIPES; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    void deactivated(final long key, final long now)
+    {
+        final int bucket = bucket(key);
+        final int start = bucket * BUCKET_SIZE;
+        synchronized (locks[bucket & (LOCK_STRIPES - 1)])
+        {
+            final int slot = slotFor(key, start);
+            keys[slot] = key;
+            timestamps[slot] = now;
+        }
+    }
+
+    /**
+     * Returns the slot already holding the actor, so that it is never recorded twice, or else the first empty slot,
+     * or else the slot of the oldest deactivation.
+     */
+    private int slotFor(final long key, final int start)
+    {
+        int free = -1;
+        int oldest = start;
+        for (int slot = start; slot < start + BUCKET_SIZE; slot++)
+        {
+            if (timestamps[slot] == EMPTY)
+            {
+                if (free < 0)
+                {
+                    free = slot;
+                }
+            }
+            else if (keys[slot] == key)
+            {
+                return slot;
+            }
+            else if (timestamps[slot] - timestamps[oldest] < 0)
+            {
+                oldest = slot;
+            }
+        }
+        return free >= 0 ? free : oldest;
+    }
+
+    /**
+     * Removes the deactivation of the actor.
+     *
+     * @return the nanoseconds since the actor was deactivated, or {@link #NO_GAP} if it was not deactivated within
+     * the window
+     */
+    long reactivated(final long key, final long now)
+    {
+        final int bucket = bucket(key);
+        final int start = bucket * BUCKET_SIZE;
+        synchronized (locks[bucket & (LOCK_STRIPES - 1)])
+        {
+            for (int slot = start; slot < start + BUCKET_SIZE; slot++)
+            {
+                if (keys[slot] == key && timestamps[slot] != EMPTY)
+                {
+                    final long gap = now - timestamps[slot];
+                    timestamps[slot] = EMPTY;
+                    return gap <= windowNanos ? Math.max(0, gap) : NO_GAP;
+                }
+            }
+            return NO_GAP;
+        }
+    }
+
+    private int bucket(final long key)
+    {
+        // the key is already a mixed hash, its high bits are as good as the low ones
+        return (int) (key ^ (key >>> 32)) & bucketMask;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per thread recording buffers, applied to the metrics in batches by a background drainer.
+ * <p>
+ * With buffers set on the extensions, recording a message or an invocation writes the metric and its value into
+ * a ring buffer owned by the recording thread, with no atomic operation on state shared with other threads. The
+ * metrics maintenance thread drains every buffer at the drain period and applies the events to the meters and
+ * timers. Metrics are therefore up to one drain period late. When a thread records more events than its buffer
+ * holds within a drain period, the events that do not fit are dropped and counted in
+ * {@code orbit.metrics.dropped_events}. The buffers also feed the {@link KeyedRecorder keyed recorders}, such as
+ * the sketches of the {@link HotActorTracker}.
+ * <pre>
+ * RecordingBuffers recordingBuffers = new RecordingBuffers(metricRegistry, 4096, 100, TimeUnit.MILLISECONDS);
+ * actorExtension.setRecordingBuffers(recordingBuffers);
+ * messagingExtension.setRecordingBuffers(recordingBuffers);
+ * invocationHandler.setRecordingBuffers(recordingBuffers);
+ * </pre>
+ */
+public class RecordingBuffers
+{
+    private final int bufferSize;
+    private final Meter droppedEvents;
+    private final Queue<Ring> rings = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Ring> threadRing = ThreadLocal.withInitial(this::newRing);
+
+    /**
+     * @param bufferSize  events buffered per thread between two drains, rounded up to a power of two
+     * @param drainPeriod how often the buffers are applied to the metrics
+     * @param unit        the unit of the drain period
+     */
+    public RecordingBuffers(final MetricRegistry metricRegistry, final int bufferSize, final long drainPeriod, final TimeUnit unit)
+    {
+        this.bufferSize = Integer.highestOneBit(Math.max(2, bufferSize) * 2 - 1);
+        this.droppedEvents = metricRegistry.meter(MetricName.of("orbit.metrics.dropped_events").toString());
+        MetricsScheduler.scheduleAtFixedRate(this, RecordingBuffers::drain, drainPeriod, unit);
+    }
+
+    /**
+     * Marks the meter, through the buffers if any.
+     */
+    static void mark(final RecordingBuffers buffers, final Meter meter, final long count)
+    {
+        if (buffers == null)
+        {
+            meter.mark(count);
+        }
+        else
+        {
+            buffers.threadRing.get().offer(meter, count, 1);
+        }
+    }
+
+    /**
+     * Records a duration standing for {@code weight} events on the timer, through the buffers if any.
+     */
+    static void update(final RecordingBuffers buffers, final Timer timer, final long duration, final TimeUnit unit, final long weight)
+    {
+        if (buffers == null)
+        {
+            ScaledTimer.update(timer, duration, unit, weight);
+        }
+        else
+        {
+            buffers.threadRing.get().offer(timer, unit.toNanos(duration), weight);
+        }
+    }
+
+    /**
+     * Adds the weight to the key of the recorder, through the buffers if any.
+     */
+    static void record(final RecordingBuffers buffers, final KeyedRecorder recorder, final Object key, final long weight)
+    {
+        if (buffers == null)
+        {
+            recorder.record(key, weight);
+        }
+        else
+        {
+            buffers.threadRing.get().offer(recorder, key, weight, 1);
+        }
+    }
+
+    /**
+     * Applies the buffered events of every thread to their metrics.
+     */
+    public synchronized void drain()
+    {
+        long dropped = 0;
+        final Iterator<Ring> iterator = rings.iterator();
+        while (iterator.hasNext())
+        {
+            final Ring ring = iterator.next();
+            ring.drain();
+            dropped += ring.takeDropped();
+            if (ring.owner.get() == null || !ring.owner.get().isAlive())
+            {
+                // the thread is gone, nothing will be added to its buffer
+                ring.drain();
+                iterator.remove();
+            }
+        }
+        if (dropped != 0)
+        {
+            droppedEvents.mark(dropped);
+        }
+    }
+
+    private Ring newRing()
+    {
+        final Ring ring = new Ring(bufferSize);
+        rings.add(ring);
+        return ring;
+    }
+
+    /**
+     * Single producer, single consumer ring of events: the recording thread writes, the drainer reads.
+     */
+    private static final class Ring
+    {
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private final Object[] metrics;
+        private final Object[] keys;
+        private final long[] values;
+        private final long[] weights;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        // producer side only
+        private long cachedHead;
+        // drainer side only
+        private long reportedDropped;
+
+        Ring(final int size)
+        {
+            metrics = new Object[size];
+            keys = new Object[size];
+            values = new long[size];
+            weights = new long[size];
+            mask = size - 1;
+        }
+
+        void offer(final Object metric, final long value, final long weight)
+        {
+            offer(metric, null, value, weight);
+        }
+
+        void offer(final Object metric, final Object key, final long value, final long weight)
+        {
+            final long position = tail.get();
+            if (position - cachedHead > mask)
+            {
+                cachedHead = head.get();
+                if (position - cachedHead > mask)
+                {
+                    dropped.lazySet(dropped.get() + 1);
+                    return;
+                }
+            }
+            final int index = (int) position & mask;
+            metrics[index] = metric;
+            keys[index] = key;
+            values[index] = value;
+            weights[index] = weight;
+            tail.lazySet(position + 1);
+        }
+
+        void drain()
+        {
+            final long end = tail.get();
+            long position = head.get();
+            for (; position < end; position++)
+            {
+                final int index = (int) position & mask;
+                apply(metrics[index], keys[index], values[index], weights[index]);
+                metrics[index] = null;
+                keys[index] = null;
+            }
+            head.lazySet(position);
+        }
+
+        long takeDropped()
+        {
+            // the producer only ever increments its count, the drainer keeps track of what it reported
+            final long total = dropped.get();
+            final long count = total - reportedDropped;
+            reportedDropped = total;
+            return count;
+        }
+
+        private static void apply(final Object metric, final Object key, final long value, final long weight)
+        {
+            if (metric instanceof KeyedRecorder)
+            {
+                ((KeyedRecorder) metric).record(key, value);
+            }
+            else if (metric instanceof Timer)
+            {
+                ScaledTimer.update((Timer) metric, value, TimeUnit.NANOSECONDS, weight);
+            }
+            else if (metric instanceof Meter)
+            {
+                ((Meter) metric).mark(value);
+            }
+            else if (metric instanceof Histogram)
+            {
+                ((Histogram) metric).update(value);
+            }
+            else if (metric instanceof Counter)
+            {
+                ((Counter) metric).inc(value);
+            }
+        }
+    }
+
+    /**
+     * Accumulates weights per key, fed by the buffers like the metrics.
+     */
+    interface KeyedRecorder
+    {
+        void record(Object key, long weight);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Strategy creating the {@link Reservoir} behind every timer and histogram registered by the extensions.
+ */
+@FunctionalInterface
+public interface ReservoirFactory
+{
+    Reservoir newReservoir();
+
+    /**
+     * Returns the timer registered under the name, creating it with a reservoir from this factory if absent.
+     */
+    default Timer timer(final MetricRegistry metricRegistry, final String name)
+    {
+        return metricRegistry.timer(name, () -> new Timer(newReservoir()));
+    }
+
+    /**
+     * Returns the timer registered under the name, creating it as a {@link ScaledTimer} with a reservoir from this
+     * factory if absent, so that sampled recordings keep the count and rates correct.
+     */
+    default Timer scaledTimer(final MetricRegistry metricRegistry, final String name)
+    {
+        return metricRegistry.timer(name, () -> new ScaledTimer(newReservoir()));
+    }
+
+    /**
+     * Returns the histogram registered under the name, creating it with a reservoir from this factory if absent.
+     */
+    default Histogram histogram(final MetricRegistry metricRegistry, final String name)
+    {
+        return metricRegistry.histogram(name, () -> new Histogram(newReservoir()));
+    }
+
+    /**
+     * Dropwizard's default reservoir, as used by {@link MetricRegistry#timer(String)}.
+     */
+    static ReservoirFactory exponentiallyDecaying()
+    {
+        return ExponentiallyDecayingReservoir::new;
+    }
+
+    /**
+     * Lock free reservoirs recording into HdrHistograms.
+     *
+     * @param numberOfSignificantValueDigits precision of the recorded values, between 0 and 5
+     * @param resetInterval                  how long values are kept before the reservoir starts over,
+     *                                       or 0 to keep every value since creation
+     * @param unit                           the unit of the reset interval
+     * @see HdrHistogramReservoir
+     */
+    static ReservoirFactory hdrHistogram(final int numberOfSignificantValueDigits, final long resetInterval, final TimeUnit unit)
+    {
+        return () -> new HdrHistogramReservoir(numberOfSignificantValueDigits, resetInterval, unit);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link Sampler} of each sampled metric.
+ */
+@FunctionalInterface
+public interface SamplingStrategy
+{
+    Sampler newSampler();
+
+    /**
+     * Records every event.
+     */
+    static SamplingStrategy none()
+    {
+        return () -> Sampler.ALWAYS;
+    }
+
+    /**
+     * Records one event out of {@code n}, chosen at random.
+     *
+     * @param n the sampling period, 1 records every event
+     */
+    static SamplingStrategy fixed(final int n)
+    {
+        if (n < 1)
+        {
+            throw new IllegalArgumentException("Sampling period must be positive: " + n);
+        }
+        return n == 1 ? none() : () -> new FixedRateSampler(n);
+    }
+
+    /**
+     * Adapts the sampling period of each metric so that it records about {@code recordingsPerSecond} events per second.
+     *
+     * @param recordingsPerSecond the recording budget of each metric
+     */
+    static SamplingStrategy adaptive(final long recordingsPerSecond)
+    {
+        if (recordingsPerSecond < 1)
+        {
+            throw new IllegalArgumentException("Recording budget must be positive: " + recordingsPerSecond);
+        }
+        return () -> new AdaptiveRateSampler(recordingsPerSecond, TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Timer} whose count and rates account for sampled out events.
+ * <p>
+ * A recording standing for {@code weight} events adds one value to the reservoir and {@code weight} to the
+ * count and rates. Unweighted updates cost the same as on a plain timer.
+ */
+public class ScaledTimer extends Timer
+{
+    private final Meter sampledOut = new Meter();
+
+    public ScaledTimer(final Reservoir reservoir)
+    {
+        super(reservoir);
+    }
+
+    /**
+     * Records a duration for an event that stands for {@code weight} events.
+     */
+    public void update(final long duration, final TimeUnit unit, final long weight)
+    {
+        update(duration, unit);
+        if (weight > 1)
+        {
+            sampledOut.mark(weight - 1);
+        }
+    }
+
+    /**
+     * Records a duration on the timer, rescaled if it is a {@link ScaledTimer}.
+     */
+    public static void update(final Timer timer, final long duration, final TimeUnit unit, final long weight)
+    {
+        if (weight > 1 && timer instanceof ScaledTimer)
+        {
+            ((ScaledTimer) timer).update(duration, unit, weight);
+        }
+        else
+        {
+            timer.update(duration, unit);
+        }
+    }
+
+    @Override
+    public long getCount()
+    {
+        return super.getCount() + sampledOut.getCount();
+    }
+
+    @Override
+    public double getFifteenMinuteRate()
+    {
+        return super.getFifteenMinuteRate() + sampledOut.getFifteenMinuteRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate()
+    {
+        return super.getFiveMinuteRate() + sampledOut.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getMeanRate()
+    {
+        return super.getMeanRate() + sampledOut.getMeanRate();
+    }
+
+    @Override
+    public double getOneMinuteRate()
+    {
+        return super.getOneMinuteRate() + sampledOut.getOneMinuteRate();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the slowest invocations executed in the current window, with the actor, method, queue wait and message size
+ * of each, to find out which calls are behind the tail of the response time timers.
+ * <p>
+ * The invocations are kept in a fixed number of slots. The threshold is the shortest duration held once every slot
+ * is used, so an invocation that is not among the slowest only costs one comparison. A slower one replaces the
+ * fastest slot with a compare and set of an immutable {@link SlowInvocation}, so {@link #snapshot()} reads whole
+ * slots without locking. Durations are the execution time reported to
+ * {@link OrbitMetricsInvocationHandler#afterInvoke}. The queue wait is known when {@link MailboxMetrics} are set
+ * on the invocation handler, the inbound message size when
+ * {@link InstrumentedMessageSerializer#setMessageSizeHeader(boolean)} is enabled.
+ * <p>
+ * At the end of each window the slowest invocations are kept for {@link #getLastWindow()} and the slots are
+ * cleared.
+ * <pre>
+ * SlowInvocationTracer slowInvocationTracer = new SlowInvocationTracer(20, 1, TimeUnit.MINUTES);
+ * invocationHandler.setSlowInvocationTracer(slowInvocationTracer);
+ * </pre>
+ */
+public class SlowInvocationTracer
+{
+    /**
+     * Header added to inbound messages by {@link InstrumentedMessageSerializer} with their serialized size.
+     */
+    public static final String MESSAGE_SIZE_HEADER = "metrics-size";
+
+    private final AtomicReferenceArray<SlowInvocation> slots;
+    private volatile long threshold;
+    private volatile int epoch;
+    private volatile List<SlowInvocation> lastWindow = Collections.emptyList();
+
+    /**
+     * @param size   number of invocations kept per window
+     * @param window how long the invocations are collected before the slots are cleared
+     * @param unit   the unit of the window
+     */
+    public SlowInvocationTracer(final int size, final long window, final TimeUnit unit)
+    {
+        if (size < 1)
+        {
+            throw new IllegalArgumentException("size must be at least 1: " + size);
+        }
+        slots = new AtomicReferenceArray<>(size);
+        MetricsScheduler.scheduleAtFixedRate(this, tracer -> tracer.lastWindow = tracer.dumpAndReset(), window, unit);
+    }
+
+    /**
+     * Called by the invocation handler after each invocation.
+     *
+     * @param queueWaitNanos the time the invocation waited for its actor, or -1 if unknown
+     */
+    void invocationExecuted(final Invocation invocation, final Class<?> actorClass, final Method method,
+                            final long durationNanos, final long queueWaitNanos)
+    {
+        if (isSlow(durationNanos))
+        {
+            record(invocation, actorClass, method, durationNanos, queueWaitNanos);
+        }
+    }
+
+    /**
+     * Tells whether an invocation of this duration would be recorded, so the caller only gathers the details of the
+     * invocations that are.
+     */
+    boolean isSlow(final long durationNanos)
+    {
+        return durationNanos > threshold;
+    }
+
+    /**
+     * Returns the slowest invocations of the current window, slowest first.
+     */
+    public List<SlowInvocation> snapshot()
+    {
+        final List<SlowInvocation> snapshot = new ArrayList<>(slots.length());
+        for (int i = 0; i < slots.length(); i++)
+        {
+            final SlowInvocation slow = slots.get(i);
+            if (slow != null)
+            {
+                snapshot.add(slow);
+            }
+        }
+        snapshot.sort(Comparator.comparingLong(SlowInvocation::getDurationNanos).reversed());
+        return snapshot;
+    }
+
+    /**
+     * Returns the slowest invocations of the current window, slowest first, and starts a new window.
+     */
+    public synchronized List<SlowInvocation> dumpAndReset()
+    {
+        epoch++;
+        final List<SlowInvocation> dump = new ArrayList<>(slots.length());
+        for (int i = 0; i < slots.length(); i++)
+        {
+            final SlowInvocation slow = slots.getAndSet(i, null);
+            if (slow != null)
+            {
+                dump.add(slow);
+            }
+        }
+        threshold = 0;
+        dump.sort(Comparator.comparingLong(SlowInvocation::getDurationNanos).reversed());
+        return Collections.unmodifiableList(dump);
+    }
+
+    /**
+     * Returns the slowest invocations of the last complete window, slowest first.
+     */
+    public List<SlowInvocation> getLastWindow()
+    {
+        return lastWindow;
+    }
+
+    private void record(final Invocation invocation, final Class<?> actorClass, final Method method,
+                        final long durationNanos, final long queueWaitNanos)
+    {
+        final RemoteReference<?> toReference = invocation.getToReference();
+        final SlowInvocation slow = new SlowInvocation(actorClass, toReference == null ? null : RemoteReference.getId(toReference),
+                method, durationNanos, queueWaitNanos, messageSize(invocation), System.currentTimeMillis());
+        for (int attempt = 0; attempt < slots.length(); attempt++)
+        {
+            // replace the fastest slot, if this invocation is slower
+            int fastest = 0;
+            SlowInvocation fastestSlow = slots.get(0);
+            for (int i = 1; i < slots.length() && fastestSlow != null; i++)
+            {
+                final SlowInvocation candidate = slots.get(i);
+                if (candidate == null || candidate.durationNanos < fastestSlow.durationNanos)
+                {
+                    fastest = i;
+                    fastestSlow = candidate;
+                }
+            }
+            if (fastestSlow != null && fastestSlow.durationNanos >= durationNanos)
+            {
+                return;
+            }
+            if (slots.compareAndSet(fastest, fastestSlow, slow))
+            {
+                updateThreshold();
+                return;
+            }
+            // another thread replaced this slot, look again
+        }
+    }
+
+    private void updateThreshold()
+    {
+        final int startEpoch = epoch;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < slots.length(); i++)
+        {
+            final SlowInvocation slow = slots.get(i);
+            min = Math.min(min, slow == null ? 0 : slow.durationNanos);
+        }
+        // a threshold computed from the slots of a window that was reset meanwhile would be too high
+        if (epoch == startEpoch)
+        {
+            threshold = min;
+        }
+    }
+
+    private static int messageSize(final Invocation invocation)
+    {
+        final Map<?, ?> headers = invocation.getHeaders();
+        final Object size = headers == null ? null : headers.get(MESSAGE_SIZE_HEADER);
+        return size instanceof Number ? ((Number) size).intValue() : -1;
+    }
+
+    /**
+     * One of the slowest invocations of a window.
+     */
+    public static final class SlowInvocation
+    {
+        private final Class<?> actorInterface;
+        private final Object actorId;
+        private final Method method;
+        private final long durationNanos;
+        private final long queueWaitNanos;
+        private final int messageSize;
+        private final long timestampMillis;
+
+        SlowInvocation(final Class<?> actorInterface, final Object actorId, final Method method, final long durationNanos,
+                       final long queueWaitNanos, final int messageSize, final long timestampMillis)
+        {
+            this.actorInterface = actorInterface;
+            this.actorId = actorId;
+            this.method = method;
+            this.durationNanos = durationNanos;
+            this.queueWaitNanos = queueWaitNanos;
+            this.messageSize = messageSize;
+            this.timestampMillis = timestampMillis;
+        }
+
+        public Class<?> getActorInterface()
+        {
+            return actorInterface;
+        }
+
+        public Object getActorId()
+        {
+            return actorId;
+        }
+
+        public Method getMethod()
+        {
+            return method;
+        }
+
+        public long getDurationNanos()
+        {
+            return durationNanos;
+        }
+
+        /**
+         * @return the time the invocation waited for its actor, or -1 if unknown
+         */
+        public long getQueueWaitNanos()
+        {
+            return queueWaitNanos;
+        }
+
+        /**
+         * @return the serialized size of the inbound message, or -1 if unknown or local
+         */
+        public int getMessageSize()
+        {
+            return messageSize;
+        }
+
+        /**
+         * @return when the invocation completed, in milliseconds since the epoch
+         */
+        public long getTimestampMillis()
+        {
+            return timestampMillis;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (actorInterface == null ? "(undefined)" : actorInterface.getName()) + ":" + actorId
+                    + "." + (method == null ? "(undefined)" : method.getName())
+                    + " duration=" + TimeUnit.NANOSECONDS.toMicros(durationNanos) + "us"
+                    + " queueWait=" + (queueWaitNanos < 0 ? "?" : TimeUnit.NANOSECONDS.toMicros(queueWaitNanos) + "us")
+                    + " messageSize=" + (messageSize < 0 ? "?" : messageSize + "B");
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Space-Saving heavy hitters sketch: tracks the heaviest keys of a stream in a fixed number of counters.
+ * <p>
+ * When a key that is not tracked arrives and every counter is in use, the key with the smallest weight is replaced
+ * and the new key inherits its weight. The weight of a tracked key is therefore never underestimated, and is
+ * overestimated by at most the weight of the smallest counter. Any key heavier than total / capacity is tracked.
+ * <p>
+ * The counters are kept in a binary min-heap so the smallest one is found in constant time, and located by key
+ * through a linear probing index of heap positions kept in primitive arrays, so adding a weight neither boxes nor
+ * allocates. Not thread safe.
+ */
+class SpaceSavingSketch
+{
+    private static final int EMPTY = -1;
+
+    // the heap: key, weight and index slot of each counter
+    private final Object[] keys;
+    private final long[] weights;
+    private final int[] indexSlots;
+    // the index: heap position of the key hashed to each slot, or EMPTY
+    private final int[] positions;
+    private final int indexMask;
+    private int size;
+
+    SpaceSavingSketch(final int capacity)
+    {
+        keys = new Object[capacity];
+        weights = new long[capacity];
+        indexSlots = new int[capacity];
+        // at most half full, so probes stay short
+        final int indexSize = Integer.highestOneBit(Math.max(2, capacity) * 4 - 1);
+        positions = new int[indexSize];
+        Arrays.fill(positions, EMPTY);
+        indexMask = indexSize - 1;
+    }
+
+    void add(final Object key, final long weight)
+    {
+        int slot = hash(key) & indexMask;
+        int position;
+        while ((position = positions[slot]) != EMPTY)
+        {
+            if (keys[position].equals(key))
+            {
+                weights[position] += weight;
+                siftDown(position);
+                return;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+        if (size < keys.length)
+        {
+            keys[size] = key;
+            weights[size] = weight;
+            indexSlots[size] = slot;
+            positions[slot] = size;
+            siftUp(size++);
+        }
+        else
+        {
+            removeFromIndex(indexSlots[0]);
+            // the removal may have shifted the empty slot found for the key
+            slot = hash(key) & indexMask;
+            while (positions[slot] != EMPTY)
+            {
+                slot = (slot + 1) & indexMask;
+            }
+            keys[0] = key;
+            weights[0] += weight;
+            indexSlots[0] = slot;
+            positions[slot] = 0;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Passes every tracked key and its estimated weight to the consumer, in no particular order.
+     */
+    void forEach(final ObjLongConsumer<Object> consumer)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            consumer.accept(keys[i], weights[i]);
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            keys[i] = null;
+            positions[indexSlots[i]] = EMPTY;
+        }
+        size = 0;
+    }
+
+    private static int hash(final Object key)
+    {
+        final int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Empties the index slot, shifting back the following keys of its probe sequence so they stay reachable.
+     */
+    private void removeFromIndex(int slot)
+    {
+        int next = slot;
+        while (true)
+        {
+            next = (next + 1) & indexMask;
+            final int position = positions[next];
+            if (position == EMPTY)
+            {
+                positions[slot] = EMPTY;
+                return;
+            }
+            final int home = hash(keys[position]) & indexMask;
+            // move the key back unless its home lies cyclically in (slot, next]
+            if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next))
+            {
+                positions[slot] = position;
+                indexSlots[position] = slot;
+                slot = next;
+            }
+        }
+    }
+
+    private void siftUp(int position)
+    {
+        while (position > 0)
+        {
+            final int parent = (position - 1) >>> 1;
+            if (weights[parent] <= weights[position])
+            {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position)
+    {
+        while (true)
+        {
+            final int left = 2 * position + 1;
+            if (left >= size)
+            {
+                return;
+            }
+            final int right = left + 1;
+            final int smallest = right < size && weights[right] < weights[left] ? right : left;
+            if (weights[position] <= weights[smallest])
+            {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(final int a, final int b)
+    {
+        final Object key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        final long weight = weights[a];
+        weights[a] = weights[b];
+        weights[b] = weight;
+        final int slot = indexSlots[a];
+        indexSlots[a] = indexSlots[b];
+        indexSlots[b] = slot;
+        positions[indexSlots[a]] = a;
+        positions[indexSlots[b]] = b;
+    }
+}
@@ -0,0 +1,168 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+public class ActorMethodCacheTest {
+
+    @Test
+    public void testLimit_OverflowHandleShared() throws Exception
+    {
+        ActorMethodCache<long[]> cache = new ActorMethodCache<>((actorClass, method) -> new long[1]);
+        long[] overflow = new long[1];
+        cache.limit(1, overflow);
+
+        long[] first = cache.get(Runnable.class, Runnable.class.getMethod("run"));
+
+        assertNotSame(overflow, first);
+        assertSame(overflow, cache.get(AutoCloseable.class, AutoCloseable.class.getMethod("close")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLimit_ReplacedOverflowHandleResolvedAgain() throws Exception
+    {
+        ActorMethodCache<long[]> cache = new ActorMethodCache<>((actorClass, method) -> new long[1]);
+        cache.limit(0, new long[1]);
+        long[] overflow = cache.get(Runnable.class, Runnable.class.getMethod("run"));
+
+        cache.limit(1, new long[1]);
+
+        assertNotSame(overflow, cache.get(Runnable.class, Runnable.class.getMethod("run")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testClear_HandlesCreatedAgain() throws Exception
+    {
+        ActorMethodCache<long[]> cache = new ActorMethodCache<>((actorClass, method) -> new long[1]);
+        Method run = Runnable.class.getMethod("run");
+        long[] before = cache.get(Runnable.class, run);
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNotSame(before, cache.get(Runnable.class, run));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEnableIdleEviction_OwnerCollectable() throws Exception
+    {
+        WeakReference<Object> owner = newEvictingOwner();
+
+        for (int i = 0; i < 50 && owner.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(owner.get());
+    }
+
+    private static WeakReference<Object> newEvictingOwner()
+    {
+        // the release callback references its owner, which references the cache, as the metric owners do
+        Object[] owner = new Object[1];
+        ActorMethodCache<long[]> cache = new ActorMethodCache<>((actorClass, method) -> new long[1]);
+        owner[0] = cache;
+        cache.enableIdleEviction(handle -> handle[0], (actorClass, method) -> owner[0].hashCode(), 1, TimeUnit.HOURS);
+        return new WeakReference<>(owner);
+    }
+
+    @Test
+    public void testSweepIdle_IdleHandlesReleased() throws Exception
+    {
+        ActorMethodCache<long[]> cache = new ActorMethodCache<>((actorClass, method) -> new long[1]);
+        List<Class<?>> released = new ArrayList<>();
+        Method run = Runnable.class.getMethod("run");
+        Method close = AutoCloseable.class.getMethod("close");
+        long[] active = cache.get(Runnable.class, run);
+        long[] idle = cache.get(AutoCloseable.class, close);
+
+        cache.sweepIdle(handle -> handle[0], (actorClass, method) -> released.add(actorClass), 0);
+        active[0]++;
+        cache.sweepIdle(handle -> handle[0], (actorClass, method) -> released.add(actorClass), 0);
+
+        assertEquals(Collections.singletonList(AutoCloseable.class), released);
+        assertEquals(1, cache.size());
+        assertSame(active, cache.get(Runnable.class, run));
+        assertNotSame(idle, cache.get(AutoCloseable.class, close));
+    }
+
+    @Test
+    public void testSweepIdle_BusyHandlesKept() throws Exception
+    {
+        ActorMethodCache<long[]> cache = new ActorMethodCache<>((actorClass, method) -> new long[1]);
+        List<Class<?>> released = new ArrayList<>();
+        Method run = Runnable.class.getMethod("run");
+        long[] inFlight = cache.get(Runnable.class, run);
+        inFlight[0] = 1;
+
+        for (int i = 0; i < 3; i++)
+        {
+            cache.sweepIdle(handle -> 0, handle -> handle[0] != 0, (actorClass, method) -> released.add(actorClass), 0);
+        }
+        assertEquals(Collections.emptyList(), released);
+        assertSame(inFlight, cache.get(Runnable.class, run));
+
+        inFlight[0] = 0;
+        cache.sweepIdle(handle -> 0, handle -> handle[0] != 0, (actorClass, method) -> released.add(actorClass), 0);
+        assertEquals(Collections.singletonList(Runnable.class), released);
+    }
+
+    @Test
+    public void testSweepIdle_ConcurrentGetKeepsRegisteredMetric() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        ActorMethodCache<Meter> cache = new ActorMethodCache<>((actorClass, method) -> metricRegistry.meter(method.getName()));
+        Method run = Runnable.class.getMethod("run");
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread thread = new Thread(() -> {
+                while (running.get())
+                {
+                    cache.get(Runnable.class, run).mark();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        int detached = 0;
+        for (int i = 0; i < 20_000; i++)
+        {
+            // the activity never changes, so every other sweep evicts the meter
+            cache.sweepIdle(meter -> 0, (actorClass, method) -> metricRegistry.remove(method.getName()), 0);
+            // only the sweep removes metrics, so the cached meter must still be registered
+            if (cache.get(Runnable.class, run) != metricRegistry.getMeters().get("run"))
+            {
+                detached++;
+            }
+        }
+        running.set(false);
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertEquals(0, detached);
+    }
+}
@@ -0,0 +1,29 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.Actor;
+
+public class ActorNamesTest {
+
+    private interface UniqueActor extends Actor {
+    }
+
+    @Test
+    public void testOf_UniqueSimpleName()
+    {
+        assertEquals("UniqueActor", ActorNames.of(UniqueActor.class));
+    }
+
+    @Test
+    public void testOf_NamesakesQualified()
+    {
+        // both packages are defined before either interface is named, as after the stage scanned the actors
+        Class<?> other = cloud.orbit.actors.extensions.metrics.dropwizard.namesake.NamesakeActor.class;
+
+        assertEquals(NamesakeActor.class.getName(), ActorNames.of(NamesakeActor.class));
+        assertEquals(other.getName(), ActorNames.of(other));
+    }
+}
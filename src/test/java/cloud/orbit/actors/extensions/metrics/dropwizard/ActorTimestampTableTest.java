@@ -0,0 +1,56 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ActorTimestampTableTest {
+
+    @Test
+    public void testPutRemove_ManyActors()
+    {
+        ActorTimestampTable table = new ActorTimestampTable(Long.MAX_VALUE);
+        Object[] actors = new Object[10_000];
+        for (int i = 0; i < actors.length; i++)
+        {
+            actors[i] = new Object();
+            table.put(actors[i], i);
+        }
+        assertEquals(actors.length, table.size());
+
+        for (int i = 0; i < actors.length; i += 2)
+        {
+            assertEquals(i, table.remove(actors[i]));
+        }
+        for (int i = 1; i < actors.length; i += 2)
+        {
+            assertEquals(i, table.remove(actors[i]));
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testRemove_UnknownActor()
+    {
+        ActorTimestampTable table = new ActorTimestampTable(Long.MAX_VALUE);
+        table.put(new Object(), 1L);
+
+        assertEquals(ActorTimestampTable.NO_TIMESTAMP, table.remove(new Object()));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testPurge_AbandonedEntriesDropped()
+    {
+        ActorTimestampTable table = new ActorTimestampTable(1_000_000L);
+        Object abandoned = new Object();
+        Object recent = new Object();
+        table.put(abandoned, System.nanoTime() - 10_000_000L);
+        table.put(recent, System.nanoTime());
+
+        table.purge();
+
+        assertEquals(1, table.size());
+        assertEquals(ActorTimestampTable.NO_TIMESTAMP, table.remove(abandoned));
+    }
+}
@@ -0,0 +1,64 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static cloud.orbit.actors.extensions.metrics.dropwizard.TestInvocations.newInvocation;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.concurrent.Task;
+
+public class CallGraphTest {
+
+    @Test
+    public void testSnapshot_EdgesPerCaller()
+    {
+        CallGraph callGraph = new CallGraph(new MetricRegistry());
+        Task<Object> completion = new Task<>();
+        Invocation invocation = newInvocation(completion);
+
+        invocationSent(callGraph, Runnable.class, invocation);
+        invocationSent(callGraph, Runnable.class, invocation);
+        invocationSent(callGraph, null, invocation);
+        completion.complete(null);
+
+        List<CallGraph.Edge> edges = callGraph.snapshot();
+        assertEquals(2, edges.size());
+        CallGraph.Edge fromActor = edges.get(0).getCaller().equals("Runnable") ? edges.get(0) : edges.get(1);
+        CallGraph.Edge external = fromActor == edges.get(0) ? edges.get(1) : edges.get(0);
+        assertEquals(2, fromActor.getCalls());
+        assertEquals(2, fromActor.getTimedCalls());
+        assertEquals(CallGraph.EXTERNAL_CALLER, external.getCaller());
+        assertEquals(1, external.getCalls());
+    }
+
+    @Test
+    public void testSnapshot_EdgesBounded()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CallGraph callGraph = new CallGraph(metricRegistry, ReservoirFactory.exponentiallyDecaying(), SamplingStrategy.none(), 1);
+        Invocation invocation = newInvocation(null);
+
+        invocationSent(callGraph, Runnable.class, invocation);
+        invocationSent(callGraph, Callable.class, invocation);
+        invocationSent(callGraph, null, invocation);
+
+        assertEquals(2, callGraph.snapshot().size());
+        assertEquals(2, metricRegistry.meter(CallGraph.getCallsMetricsKey(ActorNames.OVERFLOW, ActorNames.OVERFLOW, ActorNames.OVERFLOW)).getCount());
+    }
+
+    private static void invocationSent(final CallGraph callGraph, final Class<?> callerClass, final Invocation invocation)
+    {
+        CallCompletion completion = CallCompletion.of(invocation);
+        callGraph.invocationSent(callerClass, invocation, completion);
+        if (completion != null)
+        {
+            completion.awaitResponse(invocation);
+        }
+    }
+}
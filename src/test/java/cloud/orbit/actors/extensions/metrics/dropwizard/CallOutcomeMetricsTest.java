@@ -0,0 +1,74 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static cloud.orbit.actors.extensions.metrics.dropwizard.TestInvocations.newInvocation;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.concurrent.Task;
+
+public class CallOutcomeMetricsTest {
+
+    @Test
+    public void testInvocationSent_OutcomesAndInFlight()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CallOutcomeMetrics outcomeMetrics = new CallOutcomeMetrics(metricRegistry);
+        Task<Object> succeeded = new Task<>();
+        Task<Object> failed = new Task<>();
+        Task<Object> timedOut = new Task<>();
+        Task<Object> pending = new Task<>();
+
+        invocationSent(outcomeMetrics, newInvocation(succeeded));
+        invocationSent(outcomeMetrics, newInvocation(failed));
+        invocationSent(outcomeMetrics, newInvocation(timedOut));
+        invocationSent(outcomeMetrics, newInvocation(pending));
+        succeeded.complete("done");
+        failed.completeExceptionally(new IllegalStateException());
+        timedOut.completeExceptionally(new TimeoutException());
+
+        assertEquals(1, outcomeCount(metricRegistry, "success"));
+        assertEquals(1, outcomeCount(metricRegistry, "failure"));
+        assertEquals(1, outcomeCount(metricRegistry, "timeout"));
+        assertEquals(1, metricRegistry.counter(CallOutcomeMetrics.getInFlightMetricsKey("(undefined)", "(undefined)")).getCount());
+    }
+
+    @Test
+    public void testInvocationSent_CompletionSharedWithCallGraph()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CallOutcomeMetrics outcomeMetrics = new CallOutcomeMetrics(metricRegistry);
+        CallGraph callGraph = new CallGraph(metricRegistry);
+        Task<Object> response = new Task<>();
+        Invocation invocation = newInvocation(response);
+        CallCompletion completion = CallCompletion.of(invocation);
+
+        outcomeMetrics.invocationSent(invocation, completion);
+        callGraph.invocationSent(null, invocation, completion);
+        completion.awaitResponse(invocation);
+        response.complete("done");
+
+        assertEquals(1, outcomeCount(metricRegistry, "success"));
+        assertEquals(1, callGraph.snapshot().get(0).getTimedCalls());
+    }
+
+    private static void invocationSent(final CallOutcomeMetrics outcomeMetrics, final Invocation invocation)
+    {
+        CallCompletion completion = CallCompletion.of(invocation);
+        outcomeMetrics.invocationSent(invocation, completion);
+        if (completion != null)
+        {
+            completion.awaitResponse(invocation);
+        }
+    }
+
+    private static long outcomeCount(final MetricRegistry metricRegistry, final String outcome)
+    {
+        return metricRegistry.timer(CallOutcomeMetrics.getCallOutcomeMetricsKey("(undefined)", "(undefined)", outcome)).getCount();
+    }
+}
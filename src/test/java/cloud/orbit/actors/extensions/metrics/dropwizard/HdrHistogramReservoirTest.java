@@ -0,0 +1,57 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+public class HdrHistogramReservoirTest {
+
+    @Test
+    public void testSnapshot_TailPercentilesKept()
+    {
+        HdrHistogramReservoir reservoir = new HdrHistogramReservoir(3, 0, TimeUnit.SECONDS);
+        for (int i = 1; i <= 1000; i++)
+        {
+            reservoir.update(i);
+        }
+
+        Snapshot snapshot = reservoir.getSnapshot();
+
+        assertEquals(1000, snapshot.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(999, snapshot.get999thPercentile(), 1.0);
+        assertEquals(500, snapshot.getMedian(), 1.0);
+    }
+
+    @Test
+    public void testSnapshot_ValuesAccumulateUntilReset()
+    {
+        HdrHistogramReservoir reservoir = new HdrHistogramReservoir(2, 0, TimeUnit.SECONDS);
+        reservoir.update(10);
+        assertEquals(1, reservoir.getSnapshot().size());
+
+        reservoir.update(20);
+        assertEquals(2, reservoir.getSnapshot().size());
+    }
+
+    @Test
+    public void testTimer_CreatedWithFactory()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        OrbitMetricsMessagingExtension extension = new OrbitMetricsMessagingExtension(metricRegistry, ReservoirFactory.hdrHistogram(3, 1, TimeUnit.MINUTES));
+        Timer timer = extension.getMetricRegistry().getTimers().get("orbit.messaging[type:one_way_message,direction:inbound]");
+
+        timer.update(5, TimeUnit.MILLISECONDS);
+
+        assertTrue(timer.getSnapshot() instanceof HdrHistogramSnapshot);
+        assertEquals(1, timer.getSnapshot().size());
+    }
+}
@@ -0,0 +1,57 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEstimate_WithinStandardError()
+    {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 100_000; i++)
+        {
+            sketch.add(HyperLogLog.hash("actor-" + i));
+            sketch.add(HyperLogLog.hash("actor-" + i / 2));
+        }
+
+        assertEquals(100_000, sketch.estimate(), 100_000 * 0.05);
+    }
+
+    @Test
+    public void testEstimate_SmallCardinality()
+    {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 10; i++)
+        {
+            sketch.add(HyperLogLog.hash(i % 5));
+        }
+
+        assertEquals(5, sketch.estimate());
+    }
+
+    @Test
+    public void testMerge_SerializedNodeSnapshots()
+    {
+        HyperLogLog node1 = new HyperLogLog();
+        HyperLogLog node2 = new HyperLogLog();
+        for (int i = 0; i < 20_000; i++)
+        {
+            node1.add(HyperLogLog.hash("actor-" + i));
+            node2.add(HyperLogLog.hash("actor-" + (i + 10_000)));
+        }
+
+        HyperLogLog cluster = HyperLogLog.fromByteArray(node1.toByteArray());
+        cluster.merge(HyperLogLog.fromByteArray(node2.toByteArray()));
+
+        assertEquals(node1.estimate(), HyperLogLog.fromByteArray(node1.toByteArray()).estimate());
+        assertEquals(30_000, cluster.estimate(), 30_000 * 0.05);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMerge_DifferentPrecision()
+    {
+        new HyperLogLog(12).merge(new HyperLogLog(10));
+    }
+}
@@ -0,0 +1,64 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.extensions.MessageSerializer;
+import cloud.orbit.actors.runtime.DefaultClassDictionary;
+import cloud.orbit.actors.runtime.Message;
+import cloud.orbit.actors.runtime.MessageDefinitions;
+
+public class InstrumentedMessageSerializerTest {
+
+    @Test
+    public void testSerializeDeserialize_TimedPerType() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MessageSerializer delegate = mock(MessageSerializer.class);
+        Message message = new Message().withMessageType(MessageDefinitions.REQUEST_MESSAGE);
+        when(delegate.serializeMessage(any(), any())).thenReturn(new byte[10]);
+        when(delegate.deserializeMessage(any(), any())).thenReturn(message);
+        InstrumentedMessageSerializer serializer = new InstrumentedMessageSerializer(metricRegistry, delegate);
+
+        serializer.serializeMessage(null, message);
+        serializer.deserializeMessage(null, new byte[25]);
+
+        assertEquals(1, metricRegistry.timer("orbit.messaging.serialize_time[type:request_message]").getCount());
+        assertEquals(1, metricRegistry.timer("orbit.messaging.deserialize_time[type:request_message]").getCount());
+        assertEquals(10, metricRegistry.histogram("orbit.messaging.size_in_bytes[type:request_message,direction:outbound]").getSnapshot().getMax());
+        assertEquals(25, metricRegistry.histogram("orbit.messaging.size_in_bytes[type:request_message,direction:inbound]").getSnapshot().getMax());
+    }
+
+    @Test
+    public void testActorMethodBreakdown_NamedAfterMethod() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MessageSerializer delegate = mock(MessageSerializer.class);
+        Message known = new Message().withMessageType(MessageDefinitions.ONE_WAY_MESSAGE)
+                .withInterfaceId(DefaultClassDictionary.get().getClassId(Runnable.class))
+                .withMethodId(InstrumentedMessageSerializer.getMethodId(Runnable.class.getMethod("run")));
+        Message unknownMethod = new Message().withMessageType(MessageDefinitions.ONE_WAY_MESSAGE)
+                .withInterfaceId(DefaultClassDictionary.get().getClassId(Runnable.class))
+                .withMethodId(42);
+        when(delegate.serializeMessage(any(), any())).thenReturn(new byte[10]);
+        when(delegate.deserializeMessage(any(), any())).thenReturn(known);
+        InstrumentedMessageSerializer serializer = new InstrumentedMessageSerializer(metricRegistry, delegate);
+        serializer.setActorMethodBreakdown(true);
+
+        serializer.serializeMessage(null, known);
+        serializer.serializeMessage(null, unknownMethod);
+        serializer.deserializeMessage(null, new byte[25]);
+
+        assertEquals(1, metricRegistry.timer("orbit.messaging.serialize_time[actor:Runnable,method:run]").getCount());
+        assertEquals(1, metricRegistry.timer("orbit.messaging.serialize_time[actor:Runnable,method:42]").getCount());
+        assertEquals(25, metricRegistry.histogram("orbit.messaging.size_in_bytes[actor:Runnable,method:run,direction:inbound]").getSnapshot().getMax());
+        assertNull(metricRegistry.getTimers().get("orbit.messaging.serialize_time[actor:Runnable,method:" + known.getMethodId() + "]"));
+    }
+}
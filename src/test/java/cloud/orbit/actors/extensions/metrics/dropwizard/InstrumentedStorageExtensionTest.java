@@ -0,0 +1,43 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.concurrent.Task;
+
+public class InstrumentedStorageExtensionTest {
+
+    @Test
+    public void testReadWrite_TimedAndErrorsCounted()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        StorageExtension storage = mock(StorageExtension.class);
+        Task<Void> failedWrite = new Task<>();
+        when(storage.readState(any(), any())).thenReturn(Task.fromValue(Boolean.TRUE));
+        when(storage.writeState(any(), any())).thenReturn(failedWrite);
+        InstrumentedStorageExtension extension = new InstrumentedStorageExtension(metricRegistry, storage);
+        extension.setStateSize(state -> 42);
+        RemoteReference<?> reference = mock(RemoteReference.class);
+
+        extension.readState(reference, new Object());
+        extension.writeState(reference, new Object());
+
+        assertEquals(1, metricRegistry.timer("orbit.storage.time[actor:(undefined),operation:read]").getCount());
+        assertEquals(42, metricRegistry.histogram("orbit.storage.state_size[actor:(undefined),operation:read]").getSnapshot().getMax());
+        assertEquals(1, metricRegistry.counter("orbit.storage.in_flight[actor:(undefined)]").getCount());
+
+        failedWrite.completeExceptionally(new IllegalStateException());
+
+        assertEquals(1, metricRegistry.timer("orbit.storage.time[actor:(undefined),operation:write]").getCount());
+        assertEquals(1, metricRegistry.meter("orbit.storage.errors[actor:(undefined),operation:write]").getCount());
+        assertEquals(0, metricRegistry.counter("orbit.storage.in_flight[actor:(undefined)]").getCount());
+    }
+}
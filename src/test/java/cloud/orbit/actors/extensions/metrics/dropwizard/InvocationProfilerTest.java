@@ -0,0 +1,52 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.Invocation;
+
+public class InvocationProfilerTest {
+
+    private static byte[] retained;
+
+    @Test
+    public void testInvocationExecuted_AllocationsRecorded() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        InvocationProfiler profiler = new InvocationProfiler(metricRegistry, SamplingStrategy.none());
+        Method method = Runnable.class.getMethod("run");
+        Invocation invocation = mock(Invocation.class);
+
+        profiler.invocationStarting(invocation, Runnable.class, method);
+        retained = new byte[1_000_000];
+        profiler.invocationExecuted(invocation);
+
+        Histogram cpuTime = metricRegistry.getHistograms().get(InvocationProfiler.getCpuTimeMetricsKey(Runnable.class, "run"));
+        Histogram allocatedBytes = metricRegistry.getHistograms().get(InvocationProfiler.getAllocatedBytesMetricsKey(Runnable.class, "run"));
+        assertEquals(1, cpuTime.getCount());
+        assertEquals(1, allocatedBytes.getCount());
+        assertTrue(allocatedBytes.getSnapshot().getMax() >= retained.length);
+    }
+
+    @Test
+    public void testInvocationExecuted_OtherInvocationIgnored() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        InvocationProfiler profiler = new InvocationProfiler(metricRegistry, SamplingStrategy.none());
+        Method method = Runnable.class.getMethod("run");
+
+        profiler.invocationStarting(mock(Invocation.class), Runnable.class, method);
+        profiler.invocationExecuted(mock(Invocation.class));
+
+        Histogram cpuTime = metricRegistry.getHistograms().get(InvocationProfiler.getCpuTimeMetricsKey(Runnable.class, "run"));
+        assertEquals(0, cpuTime.getCount());
+    }
+}
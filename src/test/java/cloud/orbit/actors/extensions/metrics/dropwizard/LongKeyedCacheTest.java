@@ -0,0 +1,63 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LongKeyedCacheTest {
+
+    @Test
+    public void testLimit_OverflowHandleShared()
+    {
+        LongKeyedCache<long[]> cache = new LongKeyedCache<>(key -> new long[1]);
+        long[] overflow = new long[1];
+        cache.limit(1, overflow);
+
+        long[] first = cache.get(1);
+
+        assertNotSame(overflow, first);
+        assertSame(first, cache.get(1));
+        assertSame(overflow, cache.get(2));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSweepIdle_IdleHandlesReleased()
+    {
+        LongKeyedCache<long[]> cache = new LongKeyedCache<>(key -> new long[1]);
+        List<Long> released = new ArrayList<>();
+        long[] active = cache.get(1);
+        long[] idle = cache.get(2);
+
+        cache.sweepIdle(handle -> handle[0], released::add, 0);
+        active[0]++;
+        cache.sweepIdle(handle -> handle[0], released::add, 0);
+
+        assertEquals(Collections.singletonList(2L), released);
+        assertEquals(1, cache.size());
+        assertSame(active, cache.get(1));
+        assertNotSame(idle, cache.get(2));
+    }
+
+    @Test
+    public void testSweepIdle_OverflowedKeysRetried()
+    {
+        LongKeyedCache<long[]> cache = new LongKeyedCache<>(key -> new long[1]);
+        long[] overflow = new long[1];
+        cache.limit(1, overflow);
+        cache.get(1);
+        assertSame(overflow, cache.get(2));
+
+        cache.sweepIdle(handle -> handle[0], key -> { }, 0);
+        cache.sweepIdle(handle -> handle[0], key -> { }, 0);
+
+        assertNotSame(overflow, cache.get(2));
+        assertEquals(1, cache.size());
+    }
+}
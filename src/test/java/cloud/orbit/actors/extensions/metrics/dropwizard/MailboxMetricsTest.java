@@ -0,0 +1,72 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cloud.orbit.actors.runtime.Invocation;
+
+public class MailboxMetricsTest {
+
+    @Test
+    public void testInvocationStarted_LeavesQueue()
+    {
+        MetricRegistry registry = new MetricRegistry();
+        MailboxMetrics mailbox = new MailboxMetrics(registry, ReservoirFactory.exponentiallyDecaying(), 16);
+        Invocation invocation = mock(Invocation.class);
+
+        mailbox.invocationRead(invocation, Runnable.class);
+        assertEquals(1, registry.counter(MailboxMetrics.getQueueDepthMetricsKey(Runnable.class)).getCount());
+
+        long waitNanos = mailbox.invocationStarted(invocation, Runnable.class, null, System.nanoTime() + 1000);
+
+        assertTrue(waitNanos >= 1000);
+        assertEquals(0, registry.counter(MailboxMetrics.getQueueDepthMetricsKey(Runnable.class)).getCount());
+        assertEquals(1, registry.timer(MailboxMetrics.getQueueWaitTimeMetricsKey(Runnable.class)).getCount());
+        assertEquals(-1, mailbox.invocationStarted(invocation, Runnable.class, null, System.nanoTime()));
+    }
+
+    @Test
+    public void testInvocationRead_SharedSlotDropsOlder()
+    {
+        MetricRegistry registry = new MetricRegistry();
+        MailboxMetrics mailbox = new MailboxMetrics(registry, ReservoirFactory.exponentiallyDecaying(), 2);
+        Invocation older = mock(Invocation.class);
+        Invocation newer = mock(Invocation.class);
+        while ((System.identityHashCode(newer) & 1) != (System.identityHashCode(older) & 1))
+        {
+            newer = mock(Invocation.class);
+        }
+
+        mailbox.invocationRead(older, Runnable.class);
+        mailbox.invocationRead(newer, Runnable.class);
+
+        assertEquals(-1, mailbox.invocationStarted(older, Runnable.class, null, System.nanoTime()));
+        assertTrue(mailbox.invocationStarted(newer, Runnable.class, null, System.nanoTime()) >= 0);
+        assertEquals(1, registry.timer(MailboxMetrics.getQueueWaitTimeMetricsKey(Runnable.class)).getCount());
+    }
+
+    @Test
+    public void testExpire_OldInvocationsDropped()
+    {
+        MetricRegistry registry = new MetricRegistry();
+        MailboxMetrics mailbox = new MailboxMetrics(registry, ReservoirFactory.exponentiallyDecaying(), 16);
+        mailbox.setExpiry(1, TimeUnit.HOURS);
+        Invocation expired = mock(Invocation.class);
+        mailbox.invocationRead(expired, Runnable.class);
+
+        mailbox.expire(System.nanoTime() + 1);
+        Invocation recent = mock(Invocation.class);
+        mailbox.invocationRead(recent, Runnable.class);
+        mailbox.expire(System.nanoTime() - TimeUnit.HOURS.toNanos(1));
+
+        assertEquals(-1, mailbox.invocationStarted(expired, Runnable.class, null, System.nanoTime()));
+        assertTrue(mailbox.invocationStarted(recent, Runnable.class, null, System.nanoTime()) >= 0);
+    }
+}
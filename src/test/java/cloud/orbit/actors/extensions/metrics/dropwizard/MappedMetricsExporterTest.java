@@ -0,0 +1,179 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+public class MappedMetricsExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExport_ReadBySidecar() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.actors.count[actor:Hello]").inc(3);
+        metricRegistry.timer("orbit.messaging.round_trip_time").update(2, TimeUnit.MILLISECONDS);
+        File file = folder.newFile("metrics");
+
+        MappedMetricsExporter exporter = new MappedMetricsExporter(metricRegistry, file, 16);
+        exporter.export();
+
+        try (MappedMetricsReader reader = new MappedMetricsReader(file))
+        {
+            double[] values = new double[MappedMetricsLayout.VALUE_COUNT];
+            int counterSlot = reader.findSlot("orbit.actors.count[actor:Hello]");
+            assertEquals(MappedMetricsLayout.TYPE_COUNTER, reader.read(counterSlot, values));
+            assertEquals(3, values[MappedMetricsLayout.FIELD_COUNT], 0);
+
+            int timerSlot = reader.findSlot("orbit.messaging.round_trip_time");
+            assertEquals(MappedMetricsLayout.TYPE_TIMER, reader.read(timerSlot, values));
+            assertEquals(1, values[MappedMetricsLayout.FIELD_COUNT], 0);
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(2), values[MappedMetricsLayout.FIELD_MAX], 0);
+
+            metricRegistry.counter("orbit.actors.count[actor:Hello]").inc();
+            exporter.export();
+            reader.read(counterSlot, values);
+            assertEquals(4, values[MappedMetricsLayout.FIELD_COUNT], 0);
+        }
+    }
+
+    @Test
+    public void testExport_RestartReplacesFile() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.a").inc();
+        File file = folder.newFile("metrics");
+        new MappedMetricsExporter(metricRegistry, file, 16).export();
+
+        try (MappedMetricsReader reader = new MappedMetricsReader(file))
+        {
+            assertFalse(reader.isReplaced());
+
+            new MappedMetricsExporter(metricRegistry, file, 16);
+
+            // the previous file stays mapped, whole
+            double[] values = new double[MappedMetricsLayout.VALUE_COUNT];
+            assertEquals(MappedMetricsLayout.TYPE_COUNTER, reader.read(reader.findSlot("orbit.a"), values));
+            assertEquals(1, values[MappedMetricsLayout.FIELD_COUNT], 0);
+            assertTrue(reader.isReplaced());
+        }
+    }
+
+    @Test
+    public void testRead_SlotLeftMidWriteReportedFree() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.a").inc();
+        File file = folder.newFile("metrics");
+        new MappedMetricsExporter(metricRegistry, file, 16).export();
+
+        try (MappedMetricsReader reader = new MappedMetricsReader(file);
+             RandomAccessFile raw = new RandomAccessFile(file, "rw"))
+        {
+            int slot = reader.findSlot("orbit.a");
+            // an exporter stopping between beginWrite and endWrite leaves the sequence odd
+            long sequenceLowByte = MappedMetricsLayout.slotOffset(slot) + MappedMetricsLayout.SLOT_SEQUENCE;
+            raw.seek(sequenceLowByte);
+            int lowByte = raw.read();
+            raw.seek(sequenceLowByte);
+            raw.write(lowByte | 1);
+
+            assertEquals(MappedMetricsLayout.TYPE_FREE, reader.read(slot, new double[MappedMetricsLayout.VALUE_COUNT]));
+            assertNull(reader.getName(slot));
+            assertEquals(-1, reader.findSlot("orbit.a"));
+        }
+    }
+
+    @Test
+    public void testExport_RemovedMetricSlotReused() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.a");
+        File file = folder.newFile("metrics");
+        MappedMetricsExporter exporter = new MappedMetricsExporter(metricRegistry, file, 1);
+        exporter.export();
+
+        metricRegistry.remove("orbit.a");
+        metricRegistry.counter("orbit.b");
+        exporter.export();
+
+        try (MappedMetricsReader reader = new MappedMetricsReader(file))
+        {
+            assertEquals(-1, reader.findSlot("orbit.a"));
+            assertEquals(0, reader.findSlot("orbit.b"));
+            assertEquals(0, reader.getDroppedMetrics());
+        }
+    }
+
+    @Test
+    public void testExport_LongNamesStoredWhole() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        String first = longName("a", 150);
+        String second = longName("b", 150);
+        metricRegistry.counter(first).inc();
+        File file = folder.newFile("metrics");
+        // room for a single long name, so the second one needs the first one's space
+        MappedMetricsExporter exporter = new MappedMetricsExporter(metricRegistry, MetricFilter.ALL, file, 4, 200);
+        exporter.export();
+        metricRegistry.remove(first);
+        metricRegistry.counter("orbit.short");
+        metricRegistry.counter(second).inc(2);
+        exporter.export();
+
+        try (MappedMetricsReader reader = new MappedMetricsReader(file))
+        {
+            int slot = reader.findSlot(second);
+            assertEquals(second, reader.getName(slot));
+            assertFalse(reader.isNameTruncated(slot));
+            double[] values = new double[MappedMetricsLayout.VALUE_COUNT];
+            reader.read(slot, values);
+            assertEquals(2, values[MappedMetricsLayout.FIELD_COUNT], 0);
+            assertEquals(-1, reader.findSlot(first));
+            assertTrue(reader.findSlot("orbit.short") >= 0);
+        }
+    }
+
+    @Test
+    public void testExport_NameTruncatedOnCharacterWhenNameAreaFull() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        // two byte characters, the last one straddling the slot's name capacity
+        String name = "orbit" + longName("\u00e9", 60);
+        metricRegistry.counter(name);
+        File file = folder.newFile("metrics");
+        MappedMetricsExporter exporter = new MappedMetricsExporter(metricRegistry, MetricFilter.ALL, file, 1, 0);
+        exporter.export();
+
+        try (MappedMetricsReader reader = new MappedMetricsReader(file))
+        {
+            assertTrue(reader.isNameTruncated(0));
+            assertEquals(name.substring(0, 5 + 49), reader.getName(0));
+            assertEquals(-1, reader.findSlot(name));
+        }
+    }
+
+    private static String longName(String repeated, int count)
+    {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            name.append(repeated);
+        }
+        return name.toString();
+    }
+}
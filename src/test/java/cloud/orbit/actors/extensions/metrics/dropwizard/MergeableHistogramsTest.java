@@ -0,0 +1,76 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+public class MergeableHistogramsTest {
+
+    private static final String TIMER_NAME = "orbit.actors.methodresponsetime[actor:Hello,method:sayHello]";
+
+    @Test
+    public void testMerge_ClusterPercentiles()
+    {
+        MergeableHistograms node1 = new MergeableHistograms(ReservoirFactory.exponentiallyDecaying(), 3);
+        MergeableHistograms node2 = new MergeableHistograms(ReservoirFactory.exponentiallyDecaying(), 3);
+        Timer timer1 = node1.timer(new MetricRegistry(), TIMER_NAME);
+        Timer timer2 = node2.timer(new MetricRegistry(), TIMER_NAME);
+        for (int i = 1; i <= 990; i++)
+        {
+            timer1.update(i, TimeUnit.MICROSECONDS);
+        }
+        for (int i = 0; i < 10; i++)
+        {
+            timer2.update(1, TimeUnit.SECONDS);
+        }
+
+        byte[] snapshot1 = node1.snapshot().get(TIMER_NAME);
+        byte[] snapshot2 = node2.snapshot().get(TIMER_NAME);
+        Histogram cluster = MergeableHistograms.merge(Arrays.asList(snapshot1, snapshot2));
+
+        assertEquals(990, timer1.getCount());
+        assertEquals(1000, cluster.getTotalCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(990), cluster.getValueAtPercentile(99), TimeUnit.MICROSECONDS.toNanos(1));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), cluster.getMaxValue(), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testSnapshot_IntervalSincePreviousSnapshot()
+    {
+        MergeableHistograms histograms = new MergeableHistograms(ReservoirFactory.exponentiallyDecaying(), 2);
+        Timer timer = histograms.timer(new MetricRegistry(), TIMER_NAME);
+        timer.update(5, TimeUnit.MILLISECONDS);
+
+        Map<String, byte[]> first = histograms.snapshot();
+        Map<String, byte[]> second = histograms.snapshot();
+
+        assertEquals(1, MergeableHistograms.decode(first.get(TIMER_NAME)).getTotalCount());
+        assertTrue(second.isEmpty());
+    }
+
+    @Test
+    public void testSnapshot_EvictedSeriesDropped()
+    {
+        MergeableHistograms histograms = new MergeableHistograms(ReservoirFactory.exponentiallyDecaying(), 2);
+        MetricRegistry metricRegistry = new MetricRegistry();
+        histograms.timer(metricRegistry, TIMER_NAME).update(5, TimeUnit.MILLISECONDS);
+
+        metricRegistry.remove(TIMER_NAME);
+
+        assertFalse(histograms.snapshot().containsKey(TIMER_NAME));
+
+        histograms.timer(metricRegistry, TIMER_NAME).update(5, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, MergeableHistograms.decode(histograms.snapshot().get(TIMER_NAME)).getTotalCount());
+    }
+}
@@ -0,0 +1,41 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class MetricNameTest {
+
+    @Test
+    public void testOf_EqualByValue()
+    {
+        MetricName name = MetricName.of("orbit.actors.methodresponsetime", "actor", "Hello", "method", "sayHello");
+
+        assertEquals(name, MetricName.of("orbit.actors.methodresponsetime", "actor", "Hello", "method", "sayHello"));
+        assertEquals(name, MetricName.of("orbit.actors.methodresponsetime", "actor", "Hello").withTag("method", "sayHello"));
+        assertNotEquals(name, MetricName.of("orbit.actors.methodresponsetime", "method", "sayHello", "actor", "Hello"));
+    }
+
+    @Test
+    public void testToString_RegistryKeyFormat()
+    {
+        assertEquals("orbit.actors.methodresponsetime[actor:Hello,method:sayHello]",
+                MetricName.of("orbit.actors.methodresponsetime", "actor", "Hello", "method", "sayHello").toString());
+        assertEquals("orbit.messaging.round_trip_time", MetricName.of("orbit.messaging.round_trip_time").toString());
+        assertEquals("orbit.actors.methodresponsetime[actor:String,method:length]",
+                OrbitMetricsInvocationHandler.getActorMethodResponseTimeMetricsKey(String.class, "length"));
+    }
+
+    @Test
+    public void testParse_RoundTrip()
+    {
+        MetricName name = MetricName.parse("orbit.messaging.peer[node:10.0.0.1:4000,direction:inbound]");
+
+        assertEquals(MetricName.of("orbit.messaging.peer", "node", "10.0.0.1:4000", "direction", "inbound"), name);
+        assertEquals("10.0.0.1:4000", name.getTag("node"));
+        assertNull(name.getTag("actor"));
+        assertEquals(0, MetricName.parse("orbit.messaging.untimed").getTagCount());
+    }
+}
@@ -0,0 +1,6 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import cloud.orbit.actors.Actor;
+
+public interface NamesakeActor extends Actor {
+}
@@ -0,0 +1,174 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class OpenMetricsWriterTest {
+
+    @Test
+    public void testWrite_TagsBecomeLabels() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.actors.count[actor:Hello]").inc(2);
+        metricRegistry.meter("orbit.messaging[type:request,direction:outbound]").mark();
+        metricRegistry.timer("orbit.actors.methodresponsetime[actor:Hello,method:sayHello]").update(2, TimeUnit.SECONDS);
+        OpenMetricsWriter writer = new OpenMetricsWriter(metricRegistry);
+
+        String text = scrape(writer, false);
+
+        assertTrue(text.contains("# TYPE orbit_actors_count gauge\norbit_actors_count{actor=\"Hello\"} 2\n"));
+        assertTrue(text.contains("orbit_messaging_total{type=\"request\",direction=\"outbound\"} 1\n"));
+        assertTrue(text.contains("orbit_actors_methodresponsetime_seconds{actor=\"Hello\",method=\"sayHello\",quantile=\"0.99\"} 2\n"));
+        assertTrue(text.contains("orbit_actors_methodresponsetime_seconds_count{actor=\"Hello\",method=\"sayHello\"} 1\n"));
+        assertTrue(text.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testWriteChanged_OnlyChangedSeries() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.actors.count[actor:Hello]").inc();
+        metricRegistry.counter("orbit.actors.count[actor:Player]").inc();
+        OpenMetricsWriter writer = new OpenMetricsWriter(metricRegistry);
+        scrape(writer, false);
+
+        metricRegistry.counter("orbit.actors.count[actor:Player]").inc();
+        String text = scrape(writer, true);
+
+        assertTrue(text.contains("orbit_actors_count{actor=\"Player\"} 2\n"));
+        assertFalse(text.contains("Hello"));
+        assertEquals("# EOF\n", scrape(writer, true));
+    }
+
+    @Test
+    public void testWriteChanged_Channel() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.actors.count[actor:Hello]").inc();
+        OpenMetricsWriter writer = new OpenMetricsWriter(metricRegistry);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.writeChanged(Channels.newChannel(out));
+        writer.writeChanged(Channels.newChannel(out));
+
+        assertEquals("# TYPE orbit_actors_count gauge\norbit_actors_count{actor=\"Hello\"} 1\n# EOF\n# EOF\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test(timeout = 10000)
+    public void testRegister_DoesNotWaitForBlockedScrape() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        metricRegistry.counter("orbit.a").inc();
+        OpenMetricsWriter writer = new OpenMetricsWriter(metricRegistry);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread scraper = new Thread(() -> {
+            try
+            {
+                writer.write(new OutputStream()
+                {
+                    @Override
+                    public void write(final int b) throws IOException
+                    {
+                        write(new byte[]{ (byte) b }, 0, 1);
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException
+                    {
+                        writing.countDown();
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new IOException(e);
+                        }
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        });
+        scraper.start();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // the listener runs on this thread while the scrape holds the writer
+        metricRegistry.counter("orbit.b").inc();
+
+        release.countDown();
+        scraper.join();
+        assertTrue(scrape(writer, false).contains("orbit_b 1\n"));
+    }
+
+    @Test
+    public void testWrite_DoublesFormatted() throws Exception
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        double[] value = new double[1];
+        metricRegistry.register("orbit.value", (Gauge<Double>) () -> value[0]);
+        OpenMetricsWriter writer = new OpenMetricsWriter(metricRegistry);
+
+        assertEquals("0.5", gaugeText(writer, value, 0.5));
+        assertEquals("-1234.5678", gaugeText(writer, value, -1234.5678));
+        assertEquals("0.001234", gaugeText(writer, value, 0.001234));
+        assertEquals("1.5e-7", gaugeText(writer, value, 1.5e-7));
+        assertEquals("1e20", gaugeText(writer, value, 1e20));
+        assertEquals("42", gaugeText(writer, value, 42.0));
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++)
+        {
+            double expected = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(60) - 30);
+            double actual = Double.parseDouble(gaugeText(writer, value, expected));
+            assertEquals(expected, actual, Math.abs(expected) * 1e-14);
+        }
+    }
+
+    @Test
+    public void testLabels_Escaped()
+    {
+        assertEquals("node=\"a\\\"b\",direction=\"inbound\"", OpenMetricsWriter.labels(MetricName.of("orbit.messaging.peer", "node", "a\"b", "direction", "inbound")));
+        assertEquals("orbit_actors_count", OpenMetricsWriter.sanitize("orbit.actors.count"));
+    }
+
+    private static String gaugeText(OpenMetricsWriter writer, double[] value, double newValue) throws Exception
+    {
+        value[0] = newValue;
+        String text = scrape(writer, false);
+        int start = text.indexOf("\norbit_value ") + "\norbit_value ".length();
+        return text.substring(start, text.indexOf('\n', start));
+    }
+
+    private static String scrape(OpenMetricsWriter writer, boolean changedOnly) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (changedOnly)
+        {
+            writer.writeChanged(out);
+        }
+        else
+        {
+            writer.write(out);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
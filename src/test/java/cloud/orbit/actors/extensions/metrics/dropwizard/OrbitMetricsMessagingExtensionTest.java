@@ -1,5 +1,7 @@
 package cloud.orbit.actors.extensions.metrics.dropwizard;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.verify;
 
@@ -78,4 +80,33 @@ public class OrbitMetricsMessagingExtensionTest {
 
         assertTrue(timer.getCount() - count == 0);
     }
+
+    @Test
+    public void testWrite_SampledOut_NoHeader() throws Exception
+    {
+        extension.setSamplingStrategy(() -> () -> 0);
+        Message message = new Message();
+        message.setMessageType(MessageDefinitions.ONE_WAY_MESSAGE);
+
+        extension.write(context, message);
+
+        assertNull(message.getHeader("metrics-ts"));
+        assertEquals(0, metricRegistry.getMeters().get("orbit.messaging[type:one_way_message,direction:outbound]").getCount());
+    }
+
+    @Test
+    public void testWriteOnRead_SampledMessage_CountsRescaled() throws Exception
+    {
+        extension.setSamplingStrategy(() -> () -> 4);
+        Message message = new Message();
+        message.setMessageType(MessageDefinitions.ONE_WAY_MESSAGE);
+
+        extension.write(context, message);
+        extension.onRead(context, message);
+
+        assertEquals(4, metricRegistry.getMeters().get("orbit.messaging[type:one_way_message,direction:outbound]").getCount());
+        Timer timer = metricRegistry.getTimers().get("orbit.messaging[type:one_way_message,direction:inbound]");
+        assertEquals(4, timer.getCount());
+        assertEquals(1, timer.getSnapshot().size());
+    }
 }
@@ -0,0 +1,78 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.cluster.NodeAddress;
+import cloud.orbit.actors.cluster.NodeAddressImpl;
+
+public class PeerCacheTest {
+
+    private final List<long[]> released = new ArrayList<>();
+    private final long[] overflow = new long[1];
+
+    private PeerCache<long[]> newCache(int maxPeers)
+    {
+        return new PeerCache<>(node -> new long[1], released::add, overflow, maxPeers, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void testGet_OverflowOverLimit()
+    {
+        PeerCache<long[]> cache = newCache(1);
+        NodeAddress first = new NodeAddressImpl(UUID.randomUUID());
+
+        long[] value = cache.get(first);
+
+        assertNotSame(overflow, value);
+        assertSame(value, cache.get(first));
+        assertSame(overflow, cache.get(new NodeAddressImpl(UUID.randomUUID())));
+        assertNull(cache.get(null));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictIdle_UnseenPeerReleasedAndRecreated()
+    {
+        PeerCache<long[]> cache = newCache(2);
+        NodeAddress active = new NodeAddressImpl(UUID.randomUUID());
+        NodeAddress idle = new NodeAddressImpl(UUID.randomUUID());
+        long[] activeValue = cache.get(active);
+        long[] idleValue = cache.get(idle);
+
+        for (int i = 0; i < 5; i++)
+        {
+            cache.get(active);
+            cache.evictIdle();
+        }
+
+        assertEquals(Arrays.asList(idleValue), released);
+        assertEquals(1, cache.size());
+        assertSame(activeValue, cache.get(active));
+        assertNotSame(idleValue, cache.get(idle));
+    }
+
+    @Test
+    public void testClose_ValuesReleased()
+    {
+        PeerCache<long[]> cache = newCache(2);
+        NodeAddress node = new NodeAddressImpl(UUID.randomUUID());
+        long[] value = cache.get(node);
+
+        cache.close();
+
+        assertEquals(Arrays.asList(value), released);
+        assertSame(overflow, cache.get(node));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,43 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PeerClockTest {
+
+    @Test
+    public void testExchangeCompleted_OffsetAndRoundTrip()
+    {
+        // peer clock 500us ahead, 100us each way, 50us spent on the peer
+        PeerClock clock = new PeerClock();
+        long roundTrip = clock.exchangeCompleted(1000, 1600, 1650, 1250);
+
+        assertEquals(200, roundTrip);
+        assertTrue(clock.isSynchronized());
+        assertEquals(500, clock.getOffsetMicros());
+        assertEquals(1100, clock.toLocalMicros(1600));
+    }
+
+    @Test
+    public void testExchangeCompleted_SmallestRoundTripWins()
+    {
+        PeerClock clock = new PeerClock();
+        clock.exchangeCompleted(1000, 1600, 1650, 1250);
+        // queued on the way back: longer round trip, skewed offset
+        clock.exchangeCompleted(2000, 2600, 2650, 3250);
+
+        assertEquals(500, clock.getOffsetMicros());
+    }
+
+    @Test
+    public void testToLocalMicros_NotSynchronized()
+    {
+        PeerClock clock = new PeerClock();
+
+        assertFalse(clock.isSynchronized());
+        assertEquals(1234, clock.toLocalMicros(1234));
+    }
+}
@@ -0,0 +1,61 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RecentDeactivationsTest {
+
+    @Test
+    public void testReactivated_GapReturnedOnce()
+    {
+        RecentDeactivations deactivations = new RecentDeactivations(64, 1_000L);
+        deactivations.deactivated(42L, 100L);
+
+        assertEquals(50L, deactivations.reactivated(42L, 150L));
+        assertEquals(RecentDeactivations.NO_GAP, deactivations.reactivated(42L, 160L));
+    }
+
+    @Test
+    public void testReactivated_OutsideWindow()
+    {
+        RecentDeactivations deactivations = new RecentDeactivations(64, 1_000L);
+        deactivations.deactivated(42L, 100L);
+
+        assertEquals(RecentDeactivations.NO_GAP, deactivations.reactivated(42L, 2_000L));
+    }
+
+    @Test
+    public void testDeactivated_RecordedOnceAfterEarlierSlotFreed()
+    {
+        RecentDeactivations deactivations = new RecentDeactivations(4, 1_000L);
+        deactivations.deactivated(1L, 100L);
+        deactivations.deactivated(2L, 110L);
+        deactivations.reactivated(1L, 120L);
+        deactivations.deactivated(2L, 130L);
+
+        assertEquals(20L, deactivations.reactivated(2L, 150L));
+        assertEquals(RecentDeactivations.NO_GAP, deactivations.reactivated(2L, 160L));
+    }
+
+    @Test
+    public void testDeactivated_BoundedOldestReplaced()
+    {
+        RecentDeactivations deactivations = new RecentDeactivations(4, Long.MAX_VALUE);
+        for (long key = 0; key < 100; key++)
+        {
+            deactivations.deactivated(HyperLogLog.hash(key), key);
+        }
+
+        assertEquals(1L, deactivations.reactivated(HyperLogLog.hash(99L), 100L));
+        int remembered = 1;
+        for (long key = 0; key < 100; key++)
+        {
+            if (deactivations.reactivated(HyperLogLog.hash(key), 100L) != RecentDeactivations.NO_GAP)
+            {
+                remembered++;
+            }
+        }
+        assertEquals(4, remembered);
+    }
+}
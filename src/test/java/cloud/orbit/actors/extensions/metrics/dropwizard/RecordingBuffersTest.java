@@ -0,0 +1,80 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+public class RecordingBuffersTest {
+
+    @Test
+    public void testDrain_EventsApplied()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RecordingBuffers buffers = new RecordingBuffers(metricRegistry, 64, 1, TimeUnit.HOURS);
+        Meter meter = metricRegistry.meter("meter");
+        Timer timer = metricRegistry.timer("timer");
+
+        RecordingBuffers.mark(buffers, meter, 3);
+        RecordingBuffers.update(buffers, timer, 5, TimeUnit.MILLISECONDS, 1);
+        assertEquals(0, meter.getCount());
+
+        buffers.drain();
+
+        assertEquals(3, meter.getCount());
+        assertEquals(1, timer.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), timer.getSnapshot().getMax());
+    }
+
+    @Test
+    public void testDrain_KeyedEventsApplied()
+    {
+        RecordingBuffers buffers = new RecordingBuffers(new MetricRegistry(), 64, 1, TimeUnit.HOURS);
+        Map<Object, Long> weights = new HashMap<>();
+
+        RecordingBuffers.record(buffers, (key, weight) -> weights.merge(key, weight, Long::sum), "actor-1", 2);
+        RecordingBuffers.record(buffers, (key, weight) -> weights.merge(key, weight, Long::sum), "actor-1", 3);
+        assertEquals(0, weights.size());
+
+        buffers.drain();
+
+        assertEquals(Long.valueOf(5), weights.get("actor-1"));
+    }
+
+    @Test
+    public void testDrain_OverflowCounted()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RecordingBuffers buffers = new RecordingBuffers(metricRegistry, 4, 1, TimeUnit.HOURS);
+        Meter meter = metricRegistry.meter("meter");
+
+        for (int i = 0; i < 10; i++)
+        {
+            RecordingBuffers.mark(buffers, meter, 1);
+        }
+        buffers.drain();
+        RecordingBuffers.mark(buffers, meter, 1);
+        buffers.drain();
+
+        assertEquals(5, meter.getCount());
+        assertEquals(6, metricRegistry.meter("orbit.metrics.dropped_events").getCount());
+    }
+
+    @Test
+    public void testMark_DirectWithoutBuffers()
+    {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        Meter meter = metricRegistry.meter("meter");
+
+        RecordingBuffers.mark(null, meter, 2);
+
+        assertEquals(2, meter.getCount());
+    }
+}
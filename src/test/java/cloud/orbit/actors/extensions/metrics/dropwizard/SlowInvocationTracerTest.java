@@ -0,0 +1,73 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.runtime.Invocation;
+
+public class SlowInvocationTracerTest {
+
+    @Test
+    public void testSnapshot_SlowestKept()
+    {
+        SlowInvocationTracer tracer = new SlowInvocationTracer(3, 1, TimeUnit.HOURS);
+        Invocation invocation = mock(Invocation.class);
+        for (long duration = 1; duration <= 100; duration++)
+        {
+            tracer.invocationExecuted(invocation, Runnable.class, null, (duration * 37) % 101, 5);
+        }
+
+        List<SlowInvocationTracer.SlowInvocation> slowest = tracer.snapshot();
+
+        assertEquals(3, slowest.size());
+        assertEquals(100, slowest.get(0).getDurationNanos());
+        assertEquals(99, slowest.get(1).getDurationNanos());
+        assertEquals(98, slowest.get(2).getDurationNanos());
+        assertEquals(Runnable.class, slowest.get(0).getActorInterface());
+        assertEquals(5, slowest.get(0).getQueueWaitNanos());
+    }
+
+    @Test
+    public void testDumpAndReset_WindowCleared()
+    {
+        SlowInvocationTracer tracer = new SlowInvocationTracer(2, 1, TimeUnit.HOURS);
+        Invocation invocation = mock(Invocation.class);
+        tracer.invocationExecuted(invocation, Runnable.class, null, 1000, -1);
+        tracer.invocationExecuted(invocation, Runnable.class, null, 2000, -1);
+
+        assertEquals(2, tracer.dumpAndReset().size());
+        assertTrue(tracer.snapshot().isEmpty());
+
+        tracer.invocationExecuted(invocation, Runnable.class, null, 10, -1);
+        assertEquals(10, tracer.snapshot().get(0).getDurationNanos());
+    }
+
+    @Test
+    public void testInvocationExecuted_FailingInvocationLeavesSlotsReadable()
+    {
+        SlowInvocationTracer tracer = new SlowInvocationTracer(1, 1, TimeUnit.HOURS);
+        Invocation failing = mock(Invocation.class);
+        when(failing.getHeaders()).thenThrow(new IllegalStateException());
+        try
+        {
+            tracer.invocationExecuted(failing, Runnable.class, null, 1000, -1);
+            fail();
+        }
+        catch (IllegalStateException expected)
+        {
+            // the slot was not claimed
+        }
+
+        tracer.invocationExecuted(mock(Invocation.class), Runnable.class, null, 2000, -1);
+
+        assertEquals(2000, tracer.snapshot().get(0).getDurationNanos());
+    }
+}
@@ -0,0 +1,67 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpaceSavingSketchTest {
+
+    @Test
+    public void testAdd_HeavyHittersTracked()
+    {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(8);
+        for (int i = 0; i < 10_000; i++)
+        {
+            sketch.add("hot", 1);
+            sketch.add("warm", i % 2);
+            sketch.add("cold-" + i, 1);
+        }
+
+        Map<Object, Long> weights = new HashMap<>();
+        sketch.forEach(weights::put);
+
+        assertEquals(8, sketch.size());
+        assertTrue(weights.get("hot") >= 10_000);
+        assertTrue(weights.get("warm") >= 5_000);
+        assertTrue(weights.get("hot") > weights.get("warm"));
+    }
+
+    @Test
+    public void testAdd_ExactBelowCapacity()
+    {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+        sketch.add("a", 3);
+        sketch.add("b", 1);
+        sketch.add("a", 2);
+
+        Map<Object, Long> weights = new HashMap<>();
+        sketch.forEach(weights::put);
+
+        assertEquals(Long.valueOf(5), weights.get("a"));
+        assertEquals(Long.valueOf(1), weights.get("b"));
+
+        sketch.clear();
+        assertEquals(0, sketch.size());
+    }
+
+    @Test
+    public void testAdd_ReplacingKeyFoundAgain()
+    {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(2);
+        sketch.add("a", 5);
+        sketch.add("b", 1);
+        sketch.add("c", 1);
+        sketch.add("c", 1);
+
+        Map<Object, Long> weights = new HashMap<>();
+        sketch.forEach(weights::put);
+
+        assertEquals(2, sketch.size());
+        assertEquals(Long.valueOf(5), weights.get("a"));
+        assertEquals(Long.valueOf(3), weights.get("c"));
+    }
+}
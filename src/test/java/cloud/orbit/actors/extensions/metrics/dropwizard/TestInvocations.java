@@ -0,0 +1,27 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cloud.orbit.actors.runtime.Invocation;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.concurrent.Task;
+
+final class TestInvocations {
+
+    private TestInvocations()
+    {
+    }
+
+    /**
+     * A mocked invocation of an undefined actor method, completing with the given task.
+     */
+    @SuppressWarnings("unchecked")
+    static Invocation newInvocation(final Task<Object> completion)
+    {
+        Invocation invocation = mock(Invocation.class);
+        when(invocation.getToReference()).thenReturn(mock(RemoteReference.class));
+        when(invocation.getCompletion()).thenReturn(completion);
+        return invocation;
+    }
+}
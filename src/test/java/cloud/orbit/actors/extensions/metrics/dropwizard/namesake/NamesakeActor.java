@@ -0,0 +1,6 @@
+package cloud.orbit.actors.extensions.metrics.dropwizard.namesake;
+
+import cloud.orbit.actors.Actor;
+
+public interface NamesakeActor extends Actor {
+}